@@ -0,0 +1,216 @@
+package accidentpack;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Answers many (state, date) "on or after" counts in one pass. Queries are grouped
+ * by state and sorted by date; each group is then answered by a single merged
+ * descent of the state's myAVL that carries the whole sorted slice of dates down
+ * the tree and splits it at every node, so each node is visited at most once per
+ * batch. Groups run in parallel, one task per state.
+ */
+public class BatchQuery {
+
+    private final List<String> states = new ArrayList<>();
+    private final List<LocalDate> dates = new ArrayList<>();
+
+    /**
+     * Adds a query
+     * @param state
+     * @param date
+     */
+    public void add(String state, LocalDate date) {
+        states.add(state);
+        dates.add(date);
+    }
+
+    /**
+     * Reads queries from a file with one "state,year-month-day" pair per line
+     * (blank lines are skipped)
+     * @param filename
+     * @return BatchQuery
+     * @throws IOException if the file cannot be read or a line is malformed,
+     * "line number: reason: line"
+     */
+    public static BatchQuery read(String filename) throws IOException {
+        BatchQuery batch = new BatchQuery();
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] items = line.split(",");
+                if (items.length != 2 || items[0].trim().isEmpty()) {
+                    throw new IOException("line " + lineNumber + ": expected state,year-month-day: " + line);
+                }
+                try {
+                    batch.add(items[0].trim(), LocalDate.parse(items[1].trim()));
+                } catch (DateTimeParseException e) {
+                    throw new IOException("line " + lineNumber + ": invalid date: " + line, e);
+                }
+            }
+        }
+        return batch;
+    }
+
+    public int size() {
+        return states.size();
+    }
+    public String getState(int query) {
+        return states.get(query);
+    }
+    public LocalDate getDate(int query) {
+        return dates.get(query);
+    }
+
+    /**
+     * Counts the reports on and after the date in the state of every query
+     * @param report the map of states to AVL trees
+     * @param threads number of worker threads
+     * @return counts in query order
+     */
+    public int[] countReports(SortedMap<String, myAVL> report, int threads) {
+        // group query numbers by state
+        StateTable<List<Integer>> groups = new StateTable<>();
+        for (int i = 0; i < states.size(); i++) {
+            groups.computeIfAbsent(states.get(i), k -> new ArrayList<>()).add(i);
+        }
+
+        int[] counts = new int[states.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                myAVL tree = report.get(group.getKey());
+                if (tree == null) {
+                    continue; // unknown state: counts stay 0
+                }
+                List<Integer> queries = group.getValue();
+                tasks.add(pool.submit(() -> countGroup(tree, queries, counts)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+        return counts;
+    }
+
+    // Answers the queries of one state and stores the counts at their query numbers
+    private void countGroup(myAVL tree, List<Integer> queries, int[] counts) {
+        Integer[] order = queries.toArray(new Integer[0]);
+        Arrays.sort(order, (a, b) -> dates.get(a).compareTo(dates.get(b)));
+        LocalDate[] sorted = new LocalDate[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = dates.get(order[i]);
+        }
+        int[] sortedCounts = countOnOrAfter(tree, sorted);
+        for (int i = 0; i < order.length; i++) {
+            counts[order[i]] = sortedCounts[i];
+        }
+    }
+
+    /**
+     * Counts, for every date of a sorted array, the reports on or after it with one
+     * merged descent of the tree. A frame is a subtree, the slice of dates routed
+     * into it, and the number of reports already known to be on or after all of
+     * those dates. At each node the slice splits: dates up to the node's date count
+     * the node and its right subtree and continue left, later dates continue right.
+     * @param tree
+     * @param sorted dates in ascending order
+     * @return counts in the order of sorted
+     */
+    static int[] countOnOrAfter(myAVL tree, LocalDate[] sorted) {
+        int[] counts = new int[sorted.length];
+        if (sorted.length == 0) {
+            return counts;
+        }
+        long[] seconds = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            seconds[i] = report.toSecond(sorted[i]);
+        }
+        int capacity = 2 * Math.max(1, tree.Height(tree.root)) + 2;
+        myAVL.Node[] nodes = new myAVL.Node[capacity];
+        int[] lo = new int[capacity];
+        int[] hi = new int[capacity];
+        int[] known = new int[capacity];
+        int top = 0;
+        nodes[top] = tree.root;
+        lo[top] = 0;
+        hi[top] = sorted.length;
+        known[top] = 0;
+        top++;
+
+        while (top > 0) {
+            top--;
+            myAVL.Node node = nodes[top];
+            int from = lo[top];
+            int to = hi[top];
+            int count = known[top];
+            nodes[top] = null;
+            if (node == null) {
+                for (int i = from; i < to; i++) {
+                    counts[i] = count;
+                }
+                continue;
+            }
+
+            // first date of the slice after the node's start time
+            long nodeSecond = node.data.getStartSecond();
+            int a = from;
+            int b = to;
+            while (a < b) {
+                int mid = (a + b) >>> 1;
+                if (nodeSecond < seconds[mid])
+                    b = mid;
+                else
+                    a = mid + 1;
+            }
+            int split = a;
+
+            if (top + 2 > nodes.length) {
+                nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                lo = Arrays.copyOf(lo, lo.length * 2);
+                hi = Arrays.copyOf(hi, hi.length * 2);
+                known = Arrays.copyOf(known, known.length * 2);
+            }
+            if (split < to) {
+                nodes[top] = node.right;
+                lo[top] = split;
+                hi[top] = to;
+                known[top] = count;
+                top++;
+            }
+            if (from < split) {
+                nodes[top] = node.left;
+                lo[top] = from;
+                hi[top] = split;
+                known[top] = count + 1 + tree.Size(node.right);
+                top++;
+            }
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,122 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * State index backed by ReportColumns instead of report objects in myAVL trees.
+ * Text columns are stored as ReportDictionary codes. Counts are answered
+ * by binary search over each state's date-sorted row offsets, so the index needs
+ * a small fraction of the heap of the state map of myAVL trees.
+ */
+public class ColumnarIndex {
+    private final StateTable<ReportColumns> states = new StateTable<>();
+
+    /**
+     * Reads a csv file straight into columnar storage. The report objects built
+     * by the parser are dropped right after their row is appended. Rows with a value
+     * that does not fit its column are skipped and reported with the malformed rows.
+     * @param filename the path to the csv file
+     * @return the index
+     */
+    public static ColumnarIndex readAccidentReports(String filename) {
+        ColumnarIndex index = new ColumnarIndex();
+        ParseErrors errors = new ParseErrors();
+        try {
+            MappedReportParser.parse(filename, index::add, errors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!errors.isEmpty()) {
+            errors.print(System.err);
+        }
+        index.buildIndex();
+        return index;
+    }
+
+    /**
+     * Copies an already loaded map of AVL trees into columnar storage
+     * @param stateAccidentsMap
+     * @return the index
+     */
+    public static ColumnarIndex from(SortedMap<String, myAVL> stateAccidentsMap) {
+        ColumnarIndex index = new ColumnarIndex();
+        for (Map.Entry<String, myAVL> entry : stateAccidentsMap.entrySet()) {
+            myAVL tree = entry.getValue();
+            List<report> reports = new ArrayList<>(tree.size());
+            tree.collectInOrder(tree.root, reports);
+            for (report r : reports) {
+                index.add(r);
+            }
+        }
+        index.buildIndex();
+        return index;
+    }
+
+    /**
+     * Appends a report to the columns of its state
+     * @param r
+     * @return the row offset of the report within its state
+     * @throws IllegalArgumentException if a value does not fit its column
+     */
+    public int add(report r) {
+        // checked before the state's columns are created, so a rejected row leaves no empty state
+        ReportColumns.checkRow(r);
+        ReportColumns columns = states.get(r.getState());
+        if (columns == null) {
+            columns = new ReportColumns(r.getState());
+            states.put(r.getState(), columns);
+        }
+        return columns.add(r);
+    }
+
+    // Trims every state's columns and builds their date indexes
+    public void buildIndex() {
+        for (ReportColumns columns : states.values()) {
+            columns.buildIndex();
+        }
+    }
+
+    /**
+     * counts the number of reports on and after a given date in a given state
+     * @param state
+     * @param date
+     * @return int
+     */
+    public int countReports(String state, LocalDate date) {
+        ReportColumns columns = states.get(state);
+        if (columns == null) {
+            return 0;
+        }
+        return columns.countOnOrAfter(date);
+    }
+
+    /**
+     * counts the number of reports in a given state with dates in [from, to)
+     * @param state
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countReportsBetween(String state, LocalDate from, LocalDate to) {
+        ReportColumns columns = states.get(state);
+        if (columns == null) {
+            return 0;
+        }
+        return columns.countBetween(from, to);
+    }
+
+    // Returns the columns of a state, or null if it has no reports
+    public ReportColumns getState(String state) {
+        return states.get(state);
+    }
+
+    // Returns the states in sorted order with their columns
+    public SortedMap<String, ReportColumns> getStates() {
+        return states;
+    }
+}
@@ -0,0 +1,244 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Thread-safe state index that keeps answering queries while reports are added.
+ * Each state is a PersistentAVL root. A writer path-copies the affected trees and
+ * then publishes a new immutable Snapshot through a volatile field (copy-on-write
+ * root publishing). Readers grab the current Snapshot and query it with no locks,
+ * so they never block on a writer and always see one consistent version of every
+ * state. Writers are serialized among themselves.
+ * <p>
+ * The state roots of a version are kept in 26 rows of 26 slots (StateTable slot
+ * order), so publishing a version copies the array of rows and the rows it changes
+ * (26 references each) instead of a whole 676-slot table.
+ */
+public class ConcurrentReportIndex {
+
+    /**
+     * An immutable version of the whole index
+     */
+    public static final class Snapshot {
+        private final Roots roots;
+        private final long version;
+
+        Snapshot(Roots roots, long version) {
+            this.roots = roots;
+            this.version = version;
+        }
+
+        /**
+         * counts the number of reports on and after a given date in a given state
+         * @param state
+         * @param date
+         * @return int
+         */
+        public int countReports(String state, LocalDate date) {
+            return PersistentAVL.countOnOrAfter(roots.get(state), date);
+        }
+
+        /**
+         * counts the number of reports in a given state with dates in [from, to)
+         * @param state
+         * @param from inclusive lower bound
+         * @param to exclusive upper bound
+         * @return int
+         */
+        public int countReportsBetween(String state, LocalDate from, LocalDate to) {
+            if (!from.isBefore(to))
+                return 0;
+            PersistentAVL.Node root = roots.get(state);
+            return PersistentAVL.countBefore(root, to) - PersistentAVL.countBefore(root, from);
+        }
+
+        // Returns the number of reports of a state in this version
+        public int size(String state) {
+            return PersistentAVL.size(roots.get(state));
+        }
+
+        // Returns the states of this version in sorted order
+        public Collection<String> states() {
+            return roots.states();
+        }
+
+        // Number of write batches published before this version
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    /**
+     * Immutable map from state to PersistentAVL root, shared between versions.
+     * Two-capital-letter codes are stored in rows[first letter][second letter];
+     * any other key goes to a small sorted map that is copied when it changes.
+     */
+    static final class Roots {
+        private static final int WIDTH = 26;
+        static final Roots EMPTY = new Roots(new PersistentAVL.Node[WIDTH][], new TreeMap<>());
+
+        // A row is null until one of its states has a root
+        private final PersistentAVL.Node[][] rows;
+        private final TreeMap<String, PersistentAVL.Node> other;
+
+        private Roots(PersistentAVL.Node[][] rows, TreeMap<String, PersistentAVL.Node> other) {
+            this.rows = rows;
+            this.other = other;
+        }
+
+        PersistentAVL.Node get(String state) {
+            int slot = StateTable.slot(state);
+            if (slot < 0) {
+                return other.get(state);
+            }
+            PersistentAVL.Node[] row = rows[slot / WIDTH];
+            return row == null ? null : row[slot % WIDTH];
+        }
+
+        // Returns the states with a root in sorted order
+        List<String> states() {
+            List<String> states = new ArrayList<>();
+            for (int first = 0; first < WIDTH; first++) {
+                PersistentAVL.Node[] row = rows[first];
+                if (row == null) {
+                    continue;
+                }
+                for (int second = 0; second < WIDTH; second++) {
+                    if (row[second] != null) {
+                        states.add(new String(new char[] { (char) ('A' + first), (char) ('A' + second) }));
+                    }
+                }
+            }
+            if (!other.isEmpty()) {
+                states.addAll(other.keySet());
+                Collections.sort(states);
+            }
+            return Collections.unmodifiableList(states);
+        }
+
+        Writer writer() {
+            return new Writer(this);
+        }
+
+        /**
+         * Builds the roots of the next version. The array of rows is copied once,
+         * and each row (or the map of other keys) the first time it is changed.
+         */
+        static final class Writer {
+            private final PersistentAVL.Node[][] rows;
+            private final boolean[] copied = new boolean[WIDTH];
+            private TreeMap<String, PersistentAVL.Node> other;
+            private boolean otherCopied;
+
+            private Writer(Roots base) {
+                rows = base.rows.clone();
+                other = base.other;
+            }
+
+            PersistentAVL.Node get(String state) {
+                int slot = StateTable.slot(state);
+                if (slot < 0) {
+                    return other.get(state);
+                }
+                PersistentAVL.Node[] row = rows[slot / WIDTH];
+                return row == null ? null : row[slot % WIDTH];
+            }
+
+            void put(String state, PersistentAVL.Node root) {
+                int slot = StateTable.slot(state);
+                if (slot < 0) {
+                    if (!otherCopied) {
+                        other = new TreeMap<>(other);
+                        otherCopied = true;
+                    }
+                    other.put(state, root);
+                    return;
+                }
+                int first = slot / WIDTH;
+                if (!copied[first]) {
+                    PersistentAVL.Node[] row = rows[first];
+                    rows[first] = row == null ? new PersistentAVL.Node[WIDTH] : Arrays.copyOf(row, WIDTH);
+                    copied[first] = true;
+                }
+                rows[first][slot % WIDTH] = root;
+            }
+
+            Roots build() {
+                return new Roots(rows, other);
+            }
+        }
+    }
+
+    private volatile Snapshot current = new Snapshot(Roots.EMPTY, 0);
+
+    public ConcurrentReportIndex() {
+    }
+
+    /**
+     * Creates an index holding the reports of an already loaded map of AVL trees
+     * @param stateAccidentsMap
+     */
+    public ConcurrentReportIndex(SortedMap<String, myAVL> stateAccidentsMap) {
+        Roots.Writer roots = Roots.EMPTY.writer();
+        for (Map.Entry<String, myAVL> entry : stateAccidentsMap.entrySet()) {
+            myAVL tree = entry.getValue();
+            List<report> sorted = new ArrayList<>(tree.size());
+            tree.collectInOrder(tree.root, sorted);
+            roots.put(entry.getKey(), PersistentAVL.build(sorted));
+        }
+        current = new Snapshot(roots.build(), 0);
+    }
+
+    /**
+     * Returns the current version of the index. Never blocks.
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Adds one report and publishes the new version. Only the path to the report
+     * in its state's tree and that state's row of roots are copied.
+     * @param r
+     */
+    public void append(report r) {
+        appendAll(Collections.singletonList(r));
+    }
+
+    /**
+     * Adds a batch of reports and publishes them as one new version, so readers
+     * see either none or all of the batch
+     * @param reports
+     */
+    public synchronized void appendAll(Collection<report> reports) {
+        if (reports.isEmpty()) {
+            return;
+        }
+        Snapshot old = current;
+        Roots.Writer roots = old.roots.writer();
+        for (report r : reports) {
+            roots.put(r.getState(), PersistentAVL.insert(roots.get(r.getState()), r));
+        }
+        current = new Snapshot(roots.build(), old.version + 1);
+    }
+
+    /**
+     * counts the number of reports on and after a given date in a given state,
+     * using the current version
+     * @param state
+     * @param date
+     * @return int
+     */
+    public int countReports(String state, LocalDate date) {
+        return current.countReports(state, date);
+    }
+}
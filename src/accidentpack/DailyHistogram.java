@@ -0,0 +1,143 @@
+package accidentpack;
+
+import java.util.Arrays;
+
+/**
+ * Number of reports per day of one state, indexed by epoch day, with prefix sums
+ * so the count before a day is one array lookup. myAVL keeps one next to its
+ * tree and updates it on every add and delete, which makes day-granular counts
+ * (on or after a date, between dates, per month, per year) O(1).
+ * <p>
+ * Adds and deletes only change the count of their day and mark the prefix sums
+ * from that day on as stale; the next query brings them up to date. The day
+ * range grows in both directions as reports arrive. A span wider than MAX_DAYS
+ * (a corrupt year in the data) turns the histogram off, and the tree answers
+ * instead. Queries may run on several threads; changes must not overlap them.
+ */
+class DailyHistogram {
+
+    // Widest range of days kept, about 200 years
+    static final int MAX_DAYS = 200 * 366;
+    // Value of dirtyFrom when every prefix sum is up to date
+    private static final int CLEAN = Integer.MAX_VALUE;
+
+    // Epoch day of counts[0]
+    private long firstDay;
+    // Reports per day, from firstDay on
+    private int[] counts = new int[0];
+    // prefix[i] = number of reports on the days before counts[i], length counts.length + 1
+    private int[] prefix = new int[1];
+    // First index of prefix that is stale, CLEAN when none is
+    private volatile int dirtyFrom = CLEAN;
+    // Reports without a start time, counted before every day
+    private int noTime;
+    // Set when the days no longer fit in MAX_DAYS
+    private boolean overflow;
+
+    // Returns false once the histogram is turned off by a too wide span of days
+    boolean isExact() {
+        return !overflow;
+    }
+
+    /**
+     * Counts a report starting at the given epoch second
+     * @param second start time, or report.NO_TIME
+     */
+    void add(long second) {
+        change(second, 1);
+    }
+
+    /**
+     * Uncounts a report starting at the given epoch second
+     * @param second start time, or report.NO_TIME
+     */
+    void remove(long second) {
+        change(second, -1);
+    }
+
+    private void change(long second, int delta) {
+        if (overflow) {
+            return;
+        }
+        if (second == report.NO_TIME) {
+            noTime += delta;
+            return;
+        }
+        long day = Math.floorDiv(second, report.SECONDS_PER_DAY);
+        if (!cover(day)) {
+            // the tree answers from now on
+            overflow = true;
+            counts = new int[0];
+            prefix = new int[1];
+            return;
+        }
+        int index = (int) (day - firstDay);
+        counts[index] += delta;
+        if (index < dirtyFrom) {
+            dirtyFrom = index;
+        }
+    }
+
+    // Grows counts so it covers day, with headroom on the side it grows to
+    private boolean cover(long day) {
+        if (counts.length == 0) {
+            firstDay = day;
+            counts = new int[32];
+            prefix = new int[33];
+            dirtyFrom = 0;
+            return true;
+        }
+        long lastDay = firstDay + counts.length - 1;
+        if (day >= firstDay && day <= lastDay) {
+            return true;
+        }
+        long from = Math.min(firstDay, day);
+        long to = Math.max(lastDay, day);
+        if (to - from + 1 > MAX_DAYS) {
+            return false;
+        }
+        // leave room for as many days again as the histogram already covers
+        long headroom = Math.max(32, counts.length);
+        if (day < firstDay) {
+            from = Math.max(day - headroom, lastDay - MAX_DAYS + 1);
+        } else {
+            to = Math.min(day + headroom, firstDay + MAX_DAYS - 1);
+        }
+        int[] grown = new int[(int) (to - from + 1)];
+        System.arraycopy(counts, 0, grown, (int) (firstDay - from), counts.length);
+        counts = grown;
+        prefix = Arrays.copyOf(prefix, grown.length + 1);
+        firstDay = from;
+        dirtyFrom = 0;
+        return true;
+    }
+
+    /**
+     * Returns the number of reports without a start time or starting on a day
+     * before the given epoch day
+     * @param day
+     * @return int
+     */
+    int countBefore(long day) {
+        if (dirtyFrom != CLEAN) {
+            refresh();
+        }
+        long index = day - firstDay;
+        if (index <= 0) {
+            return noTime;
+        }
+        return noTime + prefix[(int) Math.min(index, counts.length)];
+    }
+
+    // Brings the stale prefix sums up to date
+    private synchronized void refresh() {
+        int from = dirtyFrom;
+        if (from == CLEAN) {
+            return;
+        }
+        for (int i = from; i < counts.length; i++) {
+            prefix[i + 1] = prefix[i] + counts[i];
+        }
+        dirtyFrom = CLEAN;
+    }
+}
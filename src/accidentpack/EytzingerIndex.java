@@ -0,0 +1,73 @@
+package accidentpack;
+
+/**
+ * Read-only copy of the start times of a myAVL tree in Eytzinger (BFS) order:
+ * the root is at position 1 and the children of position k are at 2k and 2k + 1.
+ * A search walks down one contiguous long[], so the top levels of every search
+ * share the same few cache lines and the CPU can prefetch the next level, where
+ * the pointer-linked Nodes of myAVL are spread over the heap. The rank of every
+ * key is kept next to it, so a lower bound also gives a count.
+ * Built by myAVL.freeze() and dropped by the next change to the tree.
+ */
+class EytzingerIndex {
+
+    // Start times in Eytzinger order, position 0 is unused
+    private final long[] keys;
+    // In-order position (number of smaller keys) of the key at each position
+    private final int[] ranks;
+    private final int size;
+
+    /**
+     * @param sorted start times in ascending order
+     */
+    EytzingerIndex(long[] sorted) {
+        size = sorted.length;
+        keys = new long[size + 1];
+        ranks = new int[size + 1];
+        fill(sorted);
+    }
+
+    // Places the sorted keys with an in-order walk of the implicit tree
+    private void fill(long[] sorted) {
+        int next = 0;
+        int k = 1;
+        // descend to the leftmost position
+        while (k <= size)
+            k <<= 1;
+        k >>= 1;
+        while (k > 0) {
+            keys[k] = sorted[next];
+            ranks[k] = next;
+            next++;
+            if (2 * k + 1 <= size) {
+                // successor: leftmost position of the right subtree
+                k = 2 * k + 1;
+                while (2 * k <= size)
+                    k <<= 1;
+            } else {
+                // successor: first ancestor reached from a left child
+                k >>= Integer.numberOfTrailingZeros(~k) + 1;
+            }
+        }
+    }
+
+    // Number of keys
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of start times strictly before the given epoch second
+     * (the rank of its lower bound)
+     * @param second
+     * @return int
+     */
+    int countBefore(long second) {
+        int k = 1;
+        while (k <= size)
+            k = 2 * k + (keys[k] < second ? 1 : 0);
+        // undo the right turns taken after the last left turn: k is then the lower bound
+        k >>= Integer.numberOfTrailingZeros(~k) + 1;
+        return k == 0 ? size : ranks[k];
+    }
+}
@@ -0,0 +1,143 @@
+package accidentpack;
+
+/**
+ * Parses the fixed "yyyy-MM-dd HH:mm:ss[.SSS]" layout of the accident csv by
+ * character position straight into epoch days or epoch seconds. Nothing is
+ * allocated and no exception is thrown: a malformed value returns INVALID_DAY or
+ * INVALID_SECOND. A day past the end of its month is resolved like the SMART
+ * DateTimeFormatter the csv used to be read with (2020-02-30 becomes 2020-02-29,
+ * and 24:00:00 is midnight of the next day).
+ * Anything after the '.' of the seconds is ignored.
+ */
+public class FastDateParser {
+
+    // Returned by parseEpochDay for a malformed value
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+    // Returned by parseEpochSecond for a malformed value
+    public static final long INVALID_SECOND = Long.MIN_VALUE;
+
+    private FastDateParser() {
+    }
+
+    /**
+     * Parses the date of a date-time string
+     * @param text
+     * @return days since 1970-01-01, or INVALID_DAY
+     */
+    public static int parseEpochDay(CharSequence text) {
+        long seconds = parseEpochSecond(text);
+        return seconds == INVALID_SECOND ? INVALID_DAY : (int) Math.floorDiv(seconds, report.SECONDS_PER_DAY);
+    }
+
+    /**
+     * Parses the date of the ascii date-time in bytes [from, to)
+     * @param bytes
+     * @param from first byte
+     * @param to end (exclusive)
+     * @return days since 1970-01-01, or INVALID_DAY
+     */
+    public static int parseEpochDay(byte[] bytes, int from, int to) {
+        long seconds = parseEpochSecond(bytes, from, to);
+        return seconds == INVALID_SECOND ? INVALID_DAY : (int) Math.floorDiv(seconds, report.SECONDS_PER_DAY);
+    }
+
+    /**
+     * Parses a date-time string
+     * @param text
+     * @return seconds since 1970-01-01 00:00:00, or INVALID_SECOND
+     */
+    public static long parseEpochSecond(CharSequence text) {
+        if (text == null) {
+            return INVALID_SECOND;
+        }
+        int length = text.length();
+        if (length < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':'
+                || (length > 19 && text.charAt(19) != '.')) {
+            return INVALID_SECOND;
+        }
+        return epochSecond(digits(text, 0, 4), digits(text, 5, 2), digits(text, 8, 2),
+                digits(text, 11, 2), digits(text, 14, 2), digits(text, 17, 2));
+    }
+
+    /**
+     * Parses the ascii date-time in bytes [from, to)
+     * @param bytes
+     * @param from first byte
+     * @param to end (exclusive)
+     * @return seconds since 1970-01-01 00:00:00, or INVALID_SECOND
+     */
+    public static long parseEpochSecond(byte[] bytes, int from, int to) {
+        int length = to - from;
+        if (length < 19 || bytes[from + 4] != '-' || bytes[from + 7] != '-' || bytes[from + 10] != ' '
+                || bytes[from + 13] != ':' || bytes[from + 16] != ':'
+                || (length > 19 && bytes[from + 19] != '.')) {
+            return INVALID_SECOND;
+        }
+        return epochSecond(digits(bytes, from, 4), digits(bytes, from + 5, 2), digits(bytes, from + 8, 2),
+                digits(bytes, from + 11, 2), digits(bytes, from + 14, 2), digits(bytes, from + 17, 2));
+    }
+
+    // Checks the fields (a -1 is a non-digit) and combines them into epoch seconds
+    private static long epochSecond(int year, int month, int day, int hour, int minute, int second) {
+        // "yyyy" is the year of the era, so year 0000 is rejected; 24:00:00 is the next midnight
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 24 || minute < 0 || minute > 59 || second < 0 || second > 59
+                || (hour == 24 && (minute != 0 || second != 0))) {
+            return INVALID_SECOND;
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+        return epochDay(year, month, day) * report.SECONDS_PER_DAY + hour * 3600 + minute * 60 + second;
+    }
+
+    // Parses count ascii digits starting at offset, or returns -1 if one is not a digit
+    private static int digits(byte[] bytes, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int digits(CharSequence text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    // Number of days in the month of the proleptic Gregorian calendar
+    static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    // Days since 1970-01-01, the same value as LocalDate.of(year, month, day).toEpochDay()
+    static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -0,0 +1,235 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Secondary index from (state, county) or (state, city) to the reports of that
+ * place in start time order. Keys are the ReportDictionary codes packed in a
+ * long, and every place holds a sorted long[] of start times next to the report
+ * references, about 16 bytes per report, so the index can stay resident next to
+ * the state trees. A lookup is a binary search plus the k matching reports
+ * (O(log n + k)) instead of a scan of the whole state.
+ * <p>
+ * Reports may be added in any order; a place whose reports arrived out of order
+ * is sorted again on its next lookup. Methods are synchronized.
+ */
+public class LocationIndex {
+
+    // Reports of one place, sorted by start time unless sorted is false
+    private static final class Postings {
+        long[] starts = new long[4];
+        report[] reports = new report[4];
+        int size;
+        boolean sorted = true;
+
+        void add(report r) {
+            if (size == reports.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                reports = Arrays.copyOf(reports, size * 2);
+            }
+            if (size > 0 && r.getStartSecond() < starts[size - 1]) {
+                sorted = false;
+            }
+            starts[size] = r.getStartSecond();
+            reports[size] = r;
+            size++;
+        }
+
+        // Sorts by start time (stable, so equal times keep their insertion order)
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            Arrays.sort(reports, 0, size);
+            for (int i = 0; i < size; i++) {
+                starts[i] = reports[i].getStartSecond();
+            }
+            sorted = true;
+        }
+
+        // Position of the first report starting at or after second
+        int lowerBound(long second) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < second)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final boolean byCity;
+    private final StringDictionary places;
+    private final HashMap<Long, Postings> postings = new HashMap<>();
+
+    private LocationIndex(boolean byCity) {
+        this.byCity = byCity;
+        this.places = byCity ? ReportDictionary.CITIES : ReportDictionary.COUNTIES;
+    }
+
+    // Returns an empty index keyed by (state, county)
+    public static LocationIndex byCounty() {
+        return new LocationIndex(false);
+    }
+
+    // Returns an empty index keyed by (state, city)
+    public static LocationIndex byCity() {
+        return new LocationIndex(true);
+    }
+
+    /**
+     * Builds an index over an already loaded map of AVL trees
+     * @param stateAccidentsMap
+     * @param byCity true for (state, city), false for (state, county)
+     * @return the index
+     */
+    public static LocationIndex build(SortedMap<String, myAVL> stateAccidentsMap, boolean byCity) {
+        LocationIndex index = new LocationIndex(byCity);
+        for (Map.Entry<String, myAVL> entry : stateAccidentsMap.entrySet()) {
+            // in-order, so every place stays sorted
+            for (report r : entry.getValue()) {
+                index.add(r);
+            }
+        }
+        return index;
+    }
+
+    // Returns true for a (state, city) index, false for (state, county)
+    public boolean isByCity() {
+        return byCity;
+    }
+
+    /**
+     * Adds a report under its state and county (or city)
+     * @param r
+     */
+    public synchronized void add(report r) {
+        long key = key(r.getStateCode(), byCity ? r.getCityCode() : r.getCountyCode());
+        Postings place = postings.get(key);
+        if (place == null) {
+            place = new Postings();
+            postings.put(key, place);
+        }
+        place.add(r);
+    }
+
+    /**
+     * Adds a batch of reports
+     * @param reports
+     */
+    public synchronized void addAll(Iterable<report> reports) {
+        for (report r : reports) {
+            add(r);
+        }
+    }
+
+    /**
+     * Counts the reports of a place on and after a given date
+     * @param state
+     * @param place county or city name
+     * @param date
+     * @return int
+     */
+    public int countOnOrAfter(String state, String place, LocalDate date) {
+        return countBetween(state, place, report.toSecond(date), Long.MAX_VALUE);
+    }
+
+    /**
+     * Counts the reports of a place with dates in [from, to)
+     * @param state
+     * @param place county or city name
+     * @param from inclusive lower bound, null for no bound
+     * @param to exclusive upper bound, null for no bound
+     * @return int
+     */
+    public int countBetween(String state, String place, LocalDate from, LocalDate to) {
+        return countBetween(state, place, report.toSecond(from), to == null ? Long.MAX_VALUE : report.toSecond(to));
+    }
+
+    /**
+     * Counts the reports of a place starting in [fromSecond, toSecond) (O(log n))
+     * @param state
+     * @param place county or city name
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return int
+     */
+    public synchronized int countBetween(String state, String place, long fromSecond, long toSecond) {
+        Postings postings = find(state, place);
+        if (postings == null || fromSecond >= toSecond) {
+            return 0;
+        }
+        return postings.lowerBound(toSecond) - postings.lowerBound(fromSecond);
+    }
+
+    /**
+     * Returns the reports of a place with dates in [from, to) in start time
+     * order. The list is a copy, so later adds do not change it.
+     * @param state
+     * @param place county or city name
+     * @param from inclusive lower bound, null for no bound
+     * @param to exclusive upper bound, null for no bound
+     * @return List
+     */
+    public synchronized List<report> reports(String state, String place, LocalDate from, LocalDate to) {
+        Postings postings = find(state, place);
+        if (postings == null) {
+            return Collections.emptyList();
+        }
+        int start = postings.lowerBound(report.toSecond(from));
+        int end = to == null ? postings.size : postings.lowerBound(report.toSecond(to));
+        if (start >= end) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(Arrays.copyOfRange(postings.reports, start, end));
+    }
+
+    /**
+     * Aggregates the reports of a place with dates in [from, to) (O(log n + k))
+     * @param state
+     * @param place county or city name
+     * @param from inclusive lower bound, null for no bound
+     * @param to exclusive upper bound, null for no bound
+     * @return ReportAggregate
+     */
+    public synchronized ReportAggregate aggregate(String state, String place, LocalDate from, LocalDate to) {
+        ReportAggregate aggregate = new ReportAggregate();
+        for (report r : reports(state, place, from, to)) {
+            aggregate.add(r);
+        }
+        return aggregate;
+    }
+
+    // Returns the number of places with at least one report
+    public synchronized int size() {
+        return postings.size();
+    }
+
+    // Returns the sorted postings of a place, or null if it has no reports
+    private Postings find(String state, String place) {
+        int stateCode = ReportDictionary.STATES.lookup(state);
+        int placeCode = places.lookup(place);
+        if (stateCode == StringDictionary.NONE || placeCode == StringDictionary.NONE) {
+            return null;
+        }
+        Postings found = postings.get(key(stateCode, placeCode));
+        if (found != null) {
+            found.sort();
+        }
+        return found;
+    }
+
+    private static long key(int stateCode, int placeCode) {
+        return ((long) stateCode << 32) | (placeCode & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,365 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Reads the accident csv through a memory-mapped FileChannel and scans the bytes
+ * directly instead of going through readLine(), split() and DateTimeFormatter.
+ * Numbers are parsed digit by digit from the line bytes and timestamps by
+ * FastDateParser straight into epoch seconds. Street, City,
+ * County and Weather go through a small per-column cache of ReportDictionary
+ * values compared byte by byte, so repeated values do not allocate a String;
+ * only the ID becomes a new String on every row. State codes are cached too.
+ * A parser keeps per-instance scratch buffers and is not thread-safe: use one per thread.
+ * <p>
+ * Without a ParseErrors, a bad date is printed to stderr and gives report.NO_TIME and
+ * other bad columns throw, as before. With one (validation mode), malformed rows are
+ * skipped and recorded there instead, and so are rows the sink rejects by throwing
+ * IllegalArgumentException (e.g. a value OffHeapReportStore cannot store).
+ */
+public class MappedReportParser {
+
+    // Largest region mapped at once (MappedByteBuffer is limited to 2 GB)
+    private static final long WINDOW_BYTES = 1L << 30;
+    // Number of columns in a csv line
+    private static final int FIELDS = 14;
+
+    // Copy of the line being parsed
+    private byte[] line = new byte[512];
+    // Start and end offsets of each column in line
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+    // Two-letter state codes indexed by (first - 'A') * 26 + (second - 'A')
+    private final String[] states = new String[26 * 26];
+    // Recently seen canonical values of each text column, indexed by hash of their bytes
+    private final String[][] texts = new String[FIELDS][];
+    // Size of each text cache (power of two)
+    private static final int TEXT_CACHE_SIZE = 4096;
+
+    // Where malformed rows are recorded, or null to print and throw
+    private final ParseErrors errors;
+    // File position of the line being parsed
+    private long lineOffset;
+    // Rows and malformed rows of the running parse, reported to ReportMetrics at its end
+    private long rows;
+    private long failures;
+
+    public MappedReportParser() {
+        this(null);
+    }
+
+    /**
+     * @param errors receives the malformed rows, which are then skipped (null to print and throw)
+     */
+    public MappedReportParser(ParseErrors errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * Parses every data line of the csv file (the header line is skipped)
+     * @param filename the path to the csv file
+     * @param sink receives each report in file order
+     */
+    public static void parse(String filename, Consumer<report> sink) throws IOException {
+        parse(filename, sink, null);
+    }
+
+    /**
+     * Parses every data line of the csv file (the header line is skipped)
+     * @param filename the path to the csv file
+     * @param sink receives each well-formed report in file order
+     * @param errors receives the malformed rows (null to print and throw)
+     */
+    public static void parse(String filename, Consumer<report> sink, ParseErrors errors) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedReportParser parser = new MappedReportParser(errors);
+            long dataStart = nextLineStart(channel, 0);
+            parser.parse(channel, dataStart, channel.size(), sink);
+        }
+    }
+
+    /**
+     * Parses the lines in the byte range [start, end) of the file. start must be the
+     * first byte of a line and end must be a line start or the end of the file.
+     * @param channel the open csv file
+     * @param start first byte of the range
+     * @param end end of the range (exclusive)
+     * @param sink receives each report in file order
+     */
+    public void parse(FileChannel channel, long start, long end, Consumer<report> sink) throws IOException {
+        long startNanos = System.nanoTime();
+        rows = 0;
+        failures = 0;
+        try {
+            parseRange(channel, start, end, sink);
+        } finally {
+            ReportMetrics.get().recordParse(rows, System.nanoTime() - startNanos);
+            ReportMetrics.get().recordParseFailures(failures);
+        }
+    }
+
+    private void parseRange(FileChannel channel, long start, long end, Consumer<report> sink) throws IOException {
+        long position = start;
+        while (position < end) {
+            long length = Math.min(end - position, WINDOW_BYTES);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            boolean lastWindow = position + length == end;
+
+            int lineStart = 0;
+            int limit = (int) length;
+            for (int i = 0; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    parseLine(buffer, position, lineStart, i, sink);
+                    lineStart = i + 1;
+                }
+            }
+            if (lastWindow) {
+                // final line without a trailing newline
+                parseLine(buffer, position, lineStart, limit, sink);
+                lineStart = limit;
+            } else if (lineStart == 0) {
+                throw new IOException("Line longer than " + WINDOW_BYTES + " bytes at " + position);
+            }
+            // the next window starts at the first unfinished line
+            position += lineStart;
+        }
+    }
+
+    /**
+     * Returns the position just past the first '\n' at or after position
+     * (or the file size if there is none)
+     */
+    static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // Copies the bytes [from, to) of buffer (mapped at position) into line and converts them to a report
+    private void parseLine(MappedByteBuffer buffer, long position, int from, int to, Consumer<report> sink) {
+        if (to > from && buffer.get(to - 1) == '\r') {
+            to--;
+        }
+        int length = to - from;
+        if (length == 0) {
+            return;
+        }
+        if (length > line.length) {
+            line = new byte[Math.max(length, line.length * 2)];
+        }
+        buffer.get(from, line, 0, length);
+        lineOffset = position + from;
+        rows++;
+        report accidentReport;
+        if (errors == null) {
+            accidentReport = parseLine(line, length);
+        } else {
+            try {
+                accidentReport = parseLine(line, length);
+            } catch (IllegalArgumentException e) {
+                failures++;
+                errors.add(lineOffset, e.getMessage(), new String(line, 0, length, StandardCharsets.UTF_8));
+                return;
+            }
+        }
+        if (accidentReport == null) {
+            return;
+        }
+        if (errors == null) {
+            sink.accept(accidentReport);
+            return;
+        }
+        try {
+            sink.accept(accidentReport);
+        } catch (IllegalArgumentException e) {
+            failures++;
+            errors.add(lineOffset, e.getMessage(), new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Converts one csv line to a report object
+     * @param bytes the line bytes (without the line terminator)
+     * @param length number of bytes used in bytes
+     * @return report, or null for a malformed row in validation mode
+     */
+    report parseLine(byte[] bytes, int length) {
+        int field = 0;
+        fieldStart[0] = 0;
+        for (int i = 0; i < length && field < FIELDS; i++) {
+            if (bytes[i] == ',') {
+                fieldEnd[field] = i;
+                field++;
+                if (field < FIELDS) {
+                    fieldStart[field] = i + 1;
+                }
+            }
+        }
+        if (field < FIELDS) {
+            fieldEnd[field] = length;
+            field++;
+        }
+        if (field < FIELDS) {
+            throw new IllegalArgumentException("Expected " + FIELDS + " columns but found " + field + ": "
+                    + new String(bytes, 0, length, StandardCharsets.UTF_8));
+        }
+
+        String id = text(bytes, 0);
+        int severity = parseInt(bytes, 1);
+        long startTime = FastDateParser.parseEpochSecond(bytes, fieldStart[2], fieldEnd[2]);
+        long endTime = FastDateParser.parseEpochSecond(bytes, fieldStart[3], fieldEnd[3]);
+        if (startTime == FastDateParser.INVALID_SECOND || endTime == FastDateParser.INVALID_SECOND) {
+            int dateField = startTime == FastDateParser.INVALID_SECOND ? 2 : 3;
+            failures++;
+            if (errors != null) {
+                errors.add(lineOffset, "invalid date " + text(bytes, dateField), new String(bytes, 0, length, StandardCharsets.UTF_8));
+                return null;
+            }
+            // same message ReportHelper.dateConvert prints
+            if (startTime == FastDateParser.INVALID_SECOND) {
+                System.err.println("Error parsing date-time string: " + text(bytes, 2));
+                startTime = report.NO_TIME;
+            }
+            if (endTime == FastDateParser.INVALID_SECOND) {
+                System.err.println("Error parsing date-time string: " + text(bytes, 3));
+                endTime = report.NO_TIME;
+            }
+        }
+        String street = cachedText(bytes, 4, ReportDictionary.STREETS);
+        String city = cachedText(bytes, 5, ReportDictionary.CITIES);
+        String county = cachedText(bytes, 6, ReportDictionary.COUNTIES);
+        String state = state(bytes, 7);
+        int temperature = parseInt(bytes, 8);
+        int humidity = parseInt(bytes, 9);
+        int visibility = parseInt(bytes, 10);
+        String weatherCondition = cachedText(bytes, 11, ReportDictionary.WEATHER);
+        boolean crossing = matches(bytes, 12, "true", true);
+        boolean sunrise = matches(bytes, 13, "Night", false);
+        return new report(id, severity, startTime, endTime, street, city, county, state,
+                temperature, humidity, visibility, weatherCondition, crossing, sunrise);
+    }
+
+    // Returns the column as a new String
+    private String text(byte[] bytes, int field) {
+        return new String(bytes, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the canonical dictionary value of an ascii text column. A hit in the
+     * column cache needs no allocation; a miss interns a new String and caches it.
+     */
+    private String cachedText(byte[] bytes, int field, StringDictionary dictionary) {
+        int start = fieldStart[field];
+        int end = fieldEnd[field];
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] < 0) {
+                return dictionary.intern(text(bytes, field)); // not ascii
+            }
+            hash = 31 * hash + bytes[i];
+        }
+
+        String[] cache = texts[field];
+        if (cache == null) {
+            cache = new String[TEXT_CACHE_SIZE];
+            texts[field] = cache;
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TEXT_CACHE_SIZE - 1);
+        String cached = cache[slot];
+        if (cached != null && cached.length() == end - start) {
+            int i = 0;
+            while (i < cached.length() && cached.charAt(i) == bytes[start + i]) {
+                i++;
+            }
+            if (i == cached.length()) {
+                return cached;
+            }
+        }
+        String value = dictionary.intern(text(bytes, field));
+        cache[slot] = value;
+        return value;
+    }
+
+    // Returns the state column, reusing one String per two-letter code
+    private String state(byte[] bytes, int field) {
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start == 2) {
+            int first = bytes[start] - 'A';
+            int second = bytes[start + 1] - 'A';
+            if (first >= 0 && first < 26 && second >= 0 && second < 26) {
+                int index = first * 26 + second;
+                String state = states[index];
+                if (state == null) {
+                    state = text(bytes, field);
+                    states[index] = state;
+                }
+                return state;
+            }
+        }
+        return text(bytes, field);
+    }
+
+    /**
+     * Parses the integer part of a number column ("58.7" gives 58, "-3.2" gives -3),
+     * the same value Integer.parseInt(item.split("\\.")[0]) returns
+     */
+    private int parseInt(byte[] bytes, int field) {
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        int digitsStart = i;
+        int value = 0;
+        while (i < end && bytes[i] != '.') {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + text(bytes, field) + "\"");
+            }
+            value = value * 10 + digit;
+            i++;
+        }
+        if (i == digitsStart) {
+            throw new NumberFormatException("For input string: \"" + text(bytes, field) + "\"");
+        }
+        return negative ? -value : value;
+    }
+
+    // Compares the column with an ascii word
+    private boolean matches(byte[] bytes, int field, String word, boolean ignoreCase) {
+        int start = fieldStart[field];
+        if (fieldEnd[field] - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            char c = (char) bytes[start + i];
+            char w = word.charAt(i);
+            if (c != w && !(ignoreCase && Character.toLowerCase(c) == Character.toLowerCase(w))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
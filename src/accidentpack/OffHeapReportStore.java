@@ -0,0 +1,458 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+/**
+ * Off-heap storage for the whole dataset: every report is a fixed-width row and
+ * every state's AVL tree is made of fixed-width node records, both in direct
+ * ByteBuffers outside the Java heap. A node refers to its children by int row
+ * numbers instead of object references (node i belongs to row i), text columns
+ * are ReportDictionary codes and IDs are UTF-8 bytes in a separate off-heap area.
+ * The heap only holds one ByteBuffer per CHUNK_ROWS rows, so its size and the
+ * work of the garbage collector no longer grow with the dataset.
+ * <p>
+ * Callers see report objects: get() and the iterators decode a row into a new,
+ * short-lived report. Counts never decode rows.
+ * Reads may run on several threads; adds must not overlap them.
+ */
+public class OffHeapReportStore {
+
+    // Rows per chunk buffer
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+    // Bytes per ID chunk buffer
+    private static final int ID_CHUNK_BITS = 20;
+    private static final int ID_CHUNK_BYTES = 1 << ID_CHUNK_BITS;
+
+    // Row layout
+    private static final int START = 0;         // long, epoch second or report.NO_TIME
+    private static final int END = 8;           // long, epoch second or report.NO_TIME
+    private static final int ID_OFFSET = 16;    // long, position in the ID area
+    private static final int STREET = 24;       // int dictionary codes
+    private static final int CITY = 28;
+    private static final int COUNTY = 32;
+    private static final int STATE = 36;
+    private static final int WEATHER = 40;
+    private static final int TEMP = 44;         // short
+    private static final int HUMIDITY = 46;     // short
+    private static final int VISIBILITY = 48;   // short
+    private static final int ID_LENGTH = 50;    // unsigned short
+    private static final int SEVERITY = 52;     // byte
+    private static final int FLAGS = 53;        // byte
+    private static final int ROW_BYTES = 56;
+
+    private static final int CROSSING = 1;
+    private static final int NIGHT = 2;
+
+    // Node layout
+    private static final int LEFT = 0;          // int row, NIL for none
+    private static final int RIGHT = 4;
+    private static final int SIZE = 8;          // nodes in the subtree
+    private static final int HEIGHT = 12;
+    private static final int NODE_BYTES = 16;
+
+    // Row number of a missing node
+    private static final int NIL = -1;
+    // Deepest AVL tree over 2^31 rows is below this
+    private static final int MAX_HEIGHT = 64;
+
+    // Root of one state's tree
+    private static final class StateTree {
+        int root = NIL;
+        // Number of adds, checked by iterators
+        int modCount;
+    }
+
+    private final List<ByteBuffer> rowChunks = new ArrayList<>();
+    private final List<ByteBuffer> nodeChunks = new ArrayList<>();
+    private final List<ByteBuffer> idChunks = new ArrayList<>();
+    private final StateTable<StateTree> states = new StateTable<>();
+    private int rows;
+    // Next free byte of the ID area
+    private long idEnd;
+    // Search path of the running add
+    private final int[] path = new int[MAX_HEIGHT];
+
+    /**
+     * Reads a csv file straight into off-heap storage. The report objects built
+     * by the parser are dropped right after their row is added. Rows with a value
+     * that does not fit its column are skipped and reported with the malformed rows.
+     * @param filename the path to the csv file
+     * @return the store
+     */
+    public static OffHeapReportStore readAccidentReports(String filename) {
+        OffHeapReportStore store = new OffHeapReportStore();
+        ParseErrors errors = new ParseErrors();
+        try {
+            MappedReportParser.parse(filename, store::add, errors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!errors.isEmpty()) {
+            errors.print(System.err);
+        }
+        return store;
+    }
+
+    /**
+     * Copies the reports of an already loaded map of AVL trees off the heap
+     * @param stateAccidentsMap
+     * @return the store
+     */
+    public static OffHeapReportStore from(SortedMap<String, myAVL> stateAccidentsMap) {
+        OffHeapReportStore store = new OffHeapReportStore();
+        for (myAVL tree : stateAccidentsMap.values()) {
+            for (report r : tree) {
+                store.add(r);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Adds a report as a new row and inserts it into its state's tree
+     * @param r
+     * @return the row number of the report
+     * @throws IllegalArgumentException if a value does not fit its column
+     */
+    public int add(report r) {
+        if (rows == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Store is full");
+        }
+        checkRange(r, "severity", r.getSeverity(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+        checkRange(r, "temperature", r.getTemp(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "humidity", r.getHumidity(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "visibility", r.getVisibility(), Short.MIN_VALUE, Short.MAX_VALUE);
+        byte[] id = r.getID().getBytes(StandardCharsets.UTF_8);
+        if (id.length > 0xFFFF) {
+            throw new IllegalArgumentException("ID longer than 65535 bytes: " + r.getID());
+        }
+        int row = rows;
+        if ((row & CHUNK_MASK) == 0) {
+            rowChunks.add(ByteBuffer.allocateDirect(CHUNK_ROWS * ROW_BYTES));
+            nodeChunks.add(ByteBuffer.allocateDirect(CHUNK_ROWS * NODE_BYTES));
+        }
+        ByteBuffer buffer = rowChunks.get(row >>> CHUNK_BITS);
+        int at = (row & CHUNK_MASK) * ROW_BYTES;
+        buffer.putLong(at + START, r.getStartSecond());
+        buffer.putLong(at + END, r.getEndSecond());
+        buffer.putInt(at + STREET, r.getStreetCode());
+        buffer.putInt(at + CITY, r.getCityCode());
+        buffer.putInt(at + COUNTY, r.getCountyCode());
+        buffer.putInt(at + STATE, r.getStateCode());
+        buffer.putInt(at + WEATHER, r.getWeatherCode());
+        buffer.putShort(at + TEMP, (short) r.getTemp());
+        buffer.putShort(at + HUMIDITY, (short) r.getHumidity());
+        buffer.putShort(at + VISIBILITY, (short) r.getVisibility());
+        buffer.put(at + SEVERITY, (byte) r.getSeverity());
+        buffer.put(at + FLAGS, (byte) ((r.getCrossing() ? CROSSING : 0) | (r.getDayNight() ? NIGHT : 0)));
+
+        // an ID never spans two chunks
+        if ((idEnd & (ID_CHUNK_BYTES - 1)) + id.length > ID_CHUNK_BYTES) {
+            idEnd = ((idEnd >>> ID_CHUNK_BITS) + 1) << ID_CHUNK_BITS;
+        }
+        while (idChunks.size() <= (int) (idEnd >>> ID_CHUNK_BITS)) {
+            idChunks.add(ByteBuffer.allocateDirect(ID_CHUNK_BYTES));
+        }
+        idChunks.get((int) (idEnd >>> ID_CHUNK_BITS)).put((int) (idEnd & (ID_CHUNK_BYTES - 1)), id);
+        buffer.putLong(at + ID_OFFSET, idEnd);
+        buffer.putShort(at + ID_LENGTH, (short) id.length);
+        idEnd += id.length;
+        rows++;
+
+        StateTree tree = states.get(r.getState());
+        if (tree == null) {
+            tree = new StateTree();
+            states.put(r.getState(), tree);
+        }
+        tree.root = insert(tree.root, row);
+        tree.modCount++;
+        return row;
+    }
+
+    // Rejects a value that does not fit its column, before anything of the row is stored
+    private static void checkRange(report r, String column, int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Report " + r.getID() + ": " + column + " " + value
+                    + " does not fit the store (" + min + " to " + max + ")");
+        }
+    }
+
+    /**
+     * Decodes a row into a new report object
+     * @param row
+     * @return report
+     */
+    public report get(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+        ByteBuffer buffer = rowChunks.get(row >>> CHUNK_BITS);
+        int at = (row & CHUNK_MASK) * ROW_BYTES;
+        long idOffset = buffer.getLong(at + ID_OFFSET);
+        byte[] id = new byte[buffer.getShort(at + ID_LENGTH) & 0xFFFF];
+        idChunks.get((int) (idOffset >>> ID_CHUNK_BITS)).get((int) (idOffset & (ID_CHUNK_BYTES - 1)), id);
+        int flags = buffer.get(at + FLAGS);
+        return new report(new String(id, StandardCharsets.UTF_8), buffer.get(at + SEVERITY),
+                buffer.getLong(at + START), buffer.getLong(at + END), buffer.getInt(at + STREET),
+                buffer.getInt(at + CITY), buffer.getInt(at + COUNTY), buffer.getInt(at + STATE),
+                buffer.getShort(at + TEMP), buffer.getShort(at + HUMIDITY), buffer.getShort(at + VISIBILITY),
+                buffer.getInt(at + WEATHER), (flags & CROSSING) != 0, (flags & NIGHT) != 0);
+    }
+
+    // Returns the number of rows
+    public int size() {
+        return rows;
+    }
+
+    // Returns the number of reports of a state
+    public int size(String state) {
+        StateTree tree = states.get(state);
+        return tree == null ? 0 : size(tree.root);
+    }
+
+    // Returns the states with reports in sorted order
+    public Collection<String> states() {
+        return states.keySet();
+    }
+
+    // Returns the number of bytes held in direct buffers
+    public long getOffHeapBytes() {
+        return (long) rowChunks.size() * CHUNK_ROWS * (ROW_BYTES + NODE_BYTES)
+                + (long) idChunks.size() * ID_CHUNK_BYTES;
+    }
+
+    /**
+     * counts the number of reports on and after a given date in a given state
+     * @param state
+     * @param date
+     * @return int
+     */
+    public int countReports(String state, LocalDate date) {
+        StateTree tree = states.get(state);
+        if (tree == null) {
+            return 0;
+        }
+        return size(tree.root) - countBefore(tree.root, report.toSecond(date));
+    }
+
+    /**
+     * counts the number of reports in a given state with dates in [from, to)
+     * @param state
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countReportsBetween(String state, LocalDate from, LocalDate to) {
+        return countReportsBetween(state, report.toSecond(from), report.toSecond(to));
+    }
+
+    /**
+     * counts the number of reports in a given state starting in [fromSecond, toSecond) (O(log n))
+     * @param state
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return int
+     */
+    public int countReportsBetween(String state, long fromSecond, long toSecond) {
+        StateTree tree = states.get(state);
+        if (tree == null || fromSecond >= toSecond) {
+            return 0;
+        }
+        return countBefore(tree.root, toSecond) - countBefore(tree.root, fromSecond);
+    }
+
+    /**
+     * Returns the reports of a state with dates on or after the given date, in
+     * date order, each decoded into a new report object
+     * @param state
+     * @param from null for all reports
+     * @return Iterator
+     */
+    public Iterator<report> iterator(String state, LocalDate from) {
+        StateTree tree = states.get(state);
+        if (tree == null) {
+            tree = new StateTree();
+        }
+        return new InOrderIterator(tree, report.toSecond(from));
+    }
+
+    // In-order walk of one state's tree from the first row starting at or after a second
+    private final class InOrderIterator implements Iterator<report> {
+        private final StateTree tree;
+        private final int expectedModCount;
+        private final int[] stack = new int[MAX_HEIGHT];
+        private int top;
+
+        InOrderIterator(StateTree tree, long fromSecond) {
+            this.tree = tree;
+            this.expectedModCount = tree.modCount;
+            int node = tree.root;
+            while (node != NIL) {
+                if (start(node) >= fromSecond) {
+                    stack[top++] = node;
+                    node = left(node);
+                } else {
+                    node = right(node);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        public report next() {
+            if (tree.modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (top == 0)
+                throw new NoSuchElementException();
+            int node = stack[--top];
+            for (int child = right(node); child != NIL; child = left(child)) {
+                stack[top++] = child;
+            }
+            return get(node);
+        }
+    }
+
+    // Number of nodes of the subtree starting strictly before second
+    private int countBefore(int node, long second) {
+        int count = 0;
+        while (node != NIL) {
+            if (start(node) < second) {
+                // node and its whole left subtree come before second
+                count += size(left(node)) + 1;
+                node = right(node);
+            } else {
+                node = left(node);
+            }
+        }
+        return count;
+    }
+
+    // Inserts the node of row into the tree with the given root (equal times go right) and returns the new root
+    private int insert(int root, int row) {
+        setLeft(row, NIL);
+        setRight(row, NIL);
+        update(row);
+        if (root == NIL) {
+            return row;
+        }
+        long key = start(row);
+        int depth = 0;
+        int node = root;
+        while (node != NIL) {
+            path[depth++] = node;
+            node = key < start(node) ? left(node) : right(node);
+        }
+        int parent = path[depth - 1];
+        if (key < start(parent))
+            setLeft(parent, row);
+        else
+            setRight(parent, row);
+
+        // update and rebalance the path bottom-up, linking rotated subtrees back in
+        for (int i = depth - 1; i >= 0; i--) {
+            node = path[i];
+            int balanced = balance(node);
+            if (i == 0) {
+                root = balanced;
+            } else if (left(path[i - 1]) == node) {
+                setLeft(path[i - 1], balanced);
+            } else {
+                setRight(path[i - 1], balanced);
+            }
+        }
+        return root;
+    }
+
+    // Rebalances the subtree of node with at most two rotations and returns its new root
+    private int balance(int node) {
+        update(node);
+        int balance = height(right(node)) - height(left(node));
+        if (balance > 1) {
+            if (height(right(right(node))) < height(left(right(node))))
+                setRight(node, rotateRight(right(node)));
+            return rotateLeft(node);
+        }
+        if (balance < -1) {
+            if (height(left(left(node))) < height(right(left(node))))
+                setLeft(node, rotateLeft(left(node)));
+            return rotateRight(node);
+        }
+        return node;
+    }
+
+    private int rotateLeft(int x) {
+        int y = right(x);
+        setRight(x, left(y));
+        setLeft(y, x);
+        update(x);
+        update(y);
+        return y;
+    }
+
+    private int rotateRight(int y) {
+        int x = left(y);
+        setLeft(y, right(x));
+        setRight(x, y);
+        update(y);
+        update(x);
+        return x;
+    }
+
+    // Recomputes the height and subtree size of node from its children
+    private void update(int node) {
+        ByteBuffer buffer = nodeChunks.get(node >>> CHUNK_BITS);
+        int at = (node & CHUNK_MASK) * NODE_BYTES;
+        int left = buffer.getInt(at + LEFT);
+        int right = buffer.getInt(at + RIGHT);
+        buffer.putInt(at + HEIGHT, Math.max(height(left), height(right)) + 1);
+        buffer.putInt(at + SIZE, size(left) + size(right) + 1);
+    }
+
+    private long start(int row) {
+        return rowChunks.get(row >>> CHUNK_BITS).getLong((row & CHUNK_MASK) * ROW_BYTES + START);
+    }
+
+    private int left(int node) {
+        return nodeField(node, LEFT);
+    }
+
+    private int right(int node) {
+        return nodeField(node, RIGHT);
+    }
+
+    private int size(int node) {
+        return node == NIL ? 0 : nodeField(node, SIZE);
+    }
+
+    private int height(int node) {
+        return node == NIL ? 0 : nodeField(node, HEIGHT);
+    }
+
+    private int nodeField(int node, int field) {
+        return nodeChunks.get(node >>> CHUNK_BITS).getInt((node & CHUNK_MASK) * NODE_BYTES + field);
+    }
+
+    private void setLeft(int node, int child) {
+        nodeChunks.get(node >>> CHUNK_BITS).putInt((node & CHUNK_MASK) * NODE_BYTES + LEFT, child);
+    }
+
+    private void setRight(int node, int child) {
+        nodeChunks.get(node >>> CHUNK_BITS).putInt((node & CHUNK_MASK) * NODE_BYTES + RIGHT, child);
+    }
+}
@@ -0,0 +1,180 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Multi-threaded version of ReportHelper.bulkLoadAccidentReports().
+ * The csv file is split into byte ranges that start and end on line boundaries,
+ * each range is parsed on a worker thread by its own MappedReportParser, and the
+ * per-state AVL trees are then bulk-built concurrently (one tree per task). The
+ * reports of a state reach myAVL.bulkLoad in file order, so the result is the
+ * same map the sequential reader produces.
+ */
+public class ParallelReportReader {
+
+    // Upper bound for a single chunk so work stays evenly spread over the workers
+    private static final long MAX_CHUNK_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Reads the csv file using one worker per available processor
+     * @param filename the path to the csv file
+     * @return a map of states to AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> readAccidentReports(String filename) {
+        return readAccidentReports(filename, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Reads the csv file on the given number of worker threads
+     * @param filename the path to the csv file
+     * @param threads number of worker threads
+     * @return a map of states to AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> readAccidentReports(String filename, int threads) {
+        ParseErrors errors = new ParseErrors();
+        SortedMap<String, myAVL> stateAccidentsMap = readAccidentReports(filename, threads, errors);
+        if (!errors.isEmpty()) {
+            errors.print(System.err);
+        }
+        return stateAccidentsMap;
+    }
+
+    /**
+     * Reads the csv file on the given number of worker threads, skipping malformed rows
+     * @param filename the path to the csv file
+     * @param threads number of worker threads
+     * @param errors receives the malformed rows of every chunk
+     * @return a map of states to AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> readAccidentReports(String filename, int threads, ParseErrors errors) {
+        return readAccidentReports(filename, threads, errors, new LocationIndex[0]);
+    }
+
+    /**
+     * Reads the csv file on the given number of worker threads and fills secondary
+     * indexes (see LocationIndex) while the state trees are built
+     * @param filename the path to the csv file
+     * @param threads number of worker threads
+     * @param errors receives the malformed rows of every chunk
+     * @param indexes county and/or city indexes to add every report to
+     * @return a map of states to AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> readAccidentReports(String filename, int threads, ParseErrors errors,
+            LocationIndex... indexes) {
+        SortedMap<String, myAVL> stateAccidentsMap = new StateTable<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long[] bounds = splitOnLines(channel, threads);
+
+            // parse every chunk on the pool
+            List<Future<Map<String, List<report>>>> parsed = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                parsed.add(pool.submit(() -> parseChunk(channel, start, end, errors)));
+            }
+
+            // merge per-state lists in chunk order so file order is kept
+            StateTable<List<report>> byState = new StateTable<>();
+            for (Future<Map<String, List<report>>> chunk : parsed) {
+                for (Map.Entry<String, List<report>> entry : chunk.get().entrySet()) {
+                    List<report> reports = byState.get(entry.getKey());
+                    if (reports == null) {
+                        byState.put(entry.getKey(), entry.getValue());
+                    } else {
+                        reports.addAll(entry.getValue());
+                    }
+                }
+            }
+
+            // bulk-build one AVL tree per state concurrently
+            StateTable<Future<myAVL>> trees = new StateTable<>();
+            for (Map.Entry<String, List<report>> entry : byState.entrySet()) {
+                List<report> reports = entry.getValue();
+                trees.put(entry.getKey(), pool.submit(() -> myAVL.bulkLoad(reports)));
+            }
+            // one task per secondary index, alongside the tree builds
+            List<Future<?>> indexed = new ArrayList<>();
+            for (LocationIndex index : indexes) {
+                indexed.add(pool.submit(() -> {
+                    for (List<report> reports : byState.values()) {
+                        index.addAll(reports);
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<myAVL>> entry : trees.entrySet()) {
+                stateAccidentsMap.put(entry.getKey(), entry.getValue().get());
+            }
+            for (Future<?> index : indexed) {
+                index.get();
+            }
+        } catch (IOException | ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
+        }
+
+        return stateAccidentsMap;
+    }
+
+    /**
+     * Computes chunk boundaries after the header line. Every boundary except the
+     * last is the first byte of a line.
+     * @param channel the open csv file
+     * @param threads number of worker threads
+     * @return sorted chunk boundaries, first is the end of the header, last is the file size
+     */
+    static long[] splitOnLines(FileChannel channel, int threads) throws IOException {
+        long size = channel.size();
+        long dataStart = MappedReportParser.nextLineStart(channel, 0); // skip header line
+        long length = size - dataStart;
+
+        int chunks = (int) Math.max(Math.max(1, threads), (length + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(dataStart);
+        for (int i = 1; i < chunks; i++) {
+            long bound = MappedReportParser.nextLineStart(channel, dataStart + length * i / chunks);
+            if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the bytes [start, end) and converts every line to a report object
+     * @return reports of the chunk grouped by state, in file order
+     */
+    private static Map<String, List<report>> parseChunk(FileChannel channel, long start, long end, ParseErrors errors) throws IOException {
+        StateTable<List<report>> byState = new StateTable<>();
+        new MappedReportParser(errors).parse(channel, start, end, accidentReport -> {
+            List<report> reports = byState.get(accidentReport.getState());
+            if (reports == null) {
+                reports = new ArrayList<>();
+                byState.put(accidentReport.getState(), reports);
+            }
+            reports.add(accidentReport);
+        });
+        return byState;
+    }
+}
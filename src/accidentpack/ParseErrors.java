@@ -0,0 +1,74 @@
+package accidentpack;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the malformed rows of a load (validation mode). A parser given a
+ * ParseErrors skips bad rows and records them here instead of printing each one
+ * to stderr, and the caller reports them in bulk afterwards. Only the first few
+ * rows are kept as samples; all of them are counted. Safe to share between the
+ * parsers of a parallel load.
+ */
+public class ParseErrors {
+
+    // Number of sample rows kept by default
+    private static final int DEFAULT_SAMPLES = 20;
+
+    private final int maxSamples;
+    private final List<String> samples = new ArrayList<>();
+    private long count;
+
+    public ParseErrors() {
+        this(DEFAULT_SAMPLES);
+    }
+
+    /**
+     * @param maxSamples number of malformed rows kept as samples
+     */
+    public ParseErrors(int maxSamples) {
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * Records a malformed row
+     * @param offset byte position of the row in the file
+     * @param reason what is wrong with the row
+     * @param line the row text
+     */
+    public synchronized void add(long offset, String reason, String line) {
+        count++;
+        if (samples.size() < maxSamples) {
+            samples.add("byte " + offset + ": " + reason + ": " + line);
+        }
+    }
+
+    // Number of malformed rows seen
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Returns the first malformed rows, "byte offset: reason: line"
+    public synchronized List<String> getSamples() {
+        return new ArrayList<>(samples);
+    }
+
+    /**
+     * Prints the number of malformed rows and the samples
+     * @param out
+     */
+    public synchronized void print(PrintStream out) {
+        out.println(count + " malformed rows skipped");
+        for (String sample : samples) {
+            out.println("  " + sample);
+        }
+        if (count > samples.size()) {
+            out.println("  ... " + (count - samples.size()) + " more");
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Persistent (path-copying) variant of myAVL. Nodes are immutable: an insert
+ * copies only the nodes on the path from the root to the new leaf (plus the
+ * nodes touched by rotations) and returns a new root, while every older root
+ * still describes its own unchanged tree. This lets readers query a root without
+ * locks while a writer builds newer versions. Trees are kept strictly balanced,
+ * and nodes carry subtree sizes for O(log n) rank counts like myAVL.
+ */
+public final class PersistentAVL {
+
+    // Immutable NODE structure
+    static final class Node {
+        final report data;
+        final int height;
+        final int size;
+        final Node left;
+        final Node right;
+
+        Node(report data, Node left, Node right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+    }
+
+    private PersistentAVL() {
+    }
+
+    static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Returns the root of a new version that also contains key.
+     * Reports with equal dates go to the right, as in myAVL.BSTInsert.
+     * @param root root of the current version (not modified)
+     * @param key the report to add
+     * @return root of the new version
+     */
+    static Node insert(Node root, report key) {
+        if (root == null)
+            return new Node(key, null, null);
+        if (key.compareTo(root.data) < 0)
+            return balance(root.data, insert(root.left, key), root.right);
+        else
+            return balance(root.data, root.left, insert(root.right, key));
+    }
+
+    // Creates a node from its parts, rotating when the two sides differ by more than one
+    private static Node balance(report data, Node left, Node right) {
+        int diff = height(right) - height(left);
+        if (diff > 1) { // Right subtree is heavier
+            if (height(right.left) > height(right.right)) // Right-Left Case
+                right = rotateRight(right.data, right.left, right.right);
+            return rotateLeft(data, left, right);
+        }
+        if (diff < -1) { // Left subtree is heavier
+            if (height(left.right) > height(left.left)) // Left-Right Case
+                left = rotateLeft(left.data, left.left, left.right);
+            return rotateRight(data, left, right);
+        }
+        return new Node(data, left, right);
+    }
+
+    private static Node rotateLeft(report data, Node left, Node right) {
+        return new Node(right.data, new Node(data, left, right.left), right.right);
+    }
+
+    private static Node rotateRight(report data, Node left, Node right) {
+        return new Node(left.data, left.left, new Node(data, left.right, right));
+    }
+
+    /**
+     * Builds a balanced tree from reports already sorted by date
+     * @param sorted
+     * @return root
+     */
+    static Node build(List<report> sorted) {
+        return build(sorted, 0, sorted.size() - 1);
+    }
+
+    private static Node build(List<report> sorted, int lo, int hi) {
+        if (lo > hi)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        return new Node(sorted.get(mid), build(sorted, lo, mid - 1), build(sorted, mid + 1, hi));
+    }
+
+    /**
+     * Returns the number of reports with dates strictly before the given date
+     * @param root
+     * @param date
+     * @return int
+     */
+    static int countBefore(Node root, LocalDate date) {
+        return countBefore(root, report.toSecond(date));
+    }
+
+    /**
+     * Returns the number of reports starting strictly before the given epoch second
+     * @param root
+     * @param second
+     * @return int
+     */
+    static int countBefore(Node root, long second) {
+        int count = 0;
+        while (root != null) {
+            if (root.data.getStartSecond() < second) {
+                count += size(root.left) + 1;
+                root = root.right;
+            } else
+                root = root.left;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of reports with dates on or after the given date
+     * @param root
+     * @param date
+     * @return int
+     */
+    static int countOnOrAfter(Node root, LocalDate date) {
+        return size(root) - countBefore(root, date);
+    }
+}
@@ -0,0 +1,268 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded result cache for the date and time range counts of ReportHelper
+ * (countReportsAVL, countReportsBetweenAVL) and ReportServer.
+ * Each entry remembers the version of the state's myAVL when it was computed
+ * (versions are volatile and unique across trees, see myAVL.getVersion), not the
+ * tree itself. A lookup whose tree has since had an insert or delete (or was
+ * replaced) drops the entry and recomputes it, so answers are never stale and
+ * only entries of the changed state are invalidated. Eviction is pluggable (LRU or TTL), and
+ * hit/miss/eviction/invalidation counts are kept.
+ */
+public class QueryCache {
+
+    /**
+     * Decides which entries are dropped
+     */
+    public interface EvictionPolicy {
+        // Maximum number of entries kept
+        int capacity();
+        // true to evict the least recently used entry first, false for the oldest
+        boolean accessOrder();
+        // true if an entry created at createdNanos can no longer be used at nowNanos
+        boolean isExpired(long createdNanos, long nowNanos);
+    }
+
+    /**
+     * Keeps the most recently used entries
+     * @param capacity maximum number of entries
+     * @return EvictionPolicy
+     */
+    public static EvictionPolicy lru(int capacity) {
+        return new EvictionPolicy() {
+            public int capacity() {
+                return capacity;
+            }
+            public boolean accessOrder() {
+                return true;
+            }
+            public boolean isExpired(long createdNanos, long nowNanos) {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Keeps entries for a fixed time after they were computed
+     * @param capacity maximum number of entries, the oldest are dropped first
+     * @param ttlMillis time to live of an entry
+     * @return EvictionPolicy
+     */
+    public static EvictionPolicy ttl(int capacity, long ttlMillis) {
+        long ttlNanos = ttlMillis * 1_000_000L;
+        return new EvictionPolicy() {
+            public int capacity() {
+                return capacity;
+            }
+            public boolean accessOrder() {
+                return false;
+            }
+            public boolean isExpired(long createdNanos, long nowNanos) {
+                return nowNanos - createdNanos >= ttlNanos;
+            }
+        };
+    }
+
+    // Cache key: state and range [from, to) of epoch seconds ("on or after" ends at Long.MAX_VALUE)
+    private static final class Key {
+        final String state;
+        final long from;
+        final long to;
+
+        Key(String state, long from, long to) {
+            this.state = state;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return state.equals(k.state) && from == k.from && to == k.to;
+        }
+
+        @Override
+        public int hashCode() {
+            return (state.hashCode() * 31 + Long.hashCode(from)) * 31 + Long.hashCode(to);
+        }
+    }
+
+    // Version stored for a state without a tree (no tree has version 0)
+    private static final long NO_TREE = 0;
+
+    private static final class Entry {
+        final long value;
+        final long version;
+        final long createdNanos;
+
+        Entry(long value, long version, long createdNanos) {
+            this.value = value;
+            this.version = version;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    private final EvictionPolicy policy;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * @param policy LRU or TTL policy (see lru() and ttl())
+     */
+    public QueryCache(EvictionPolicy policy) {
+        this.policy = policy;
+        this.entries = new LinkedHashMap<>(16, 0.75f, policy.accessOrder());
+    }
+
+    /**
+     * Counts the reports on and after a date in a state (myAVL.countOnOrAfter)
+     * @param state
+     * @param date
+     * @param stateAccidentsMap the map of states to AVL trees
+     * @return int
+     */
+    public int countReports(String state, LocalDate date, SortedMap<String, myAVL> stateAccidentsMap) {
+        myAVL tree = stateAccidentsMap.get(state);
+        return (int) get(new Key(state, report.toSecond(date), Long.MAX_VALUE), version(tree),
+                () -> tree == null ? 0 : tree.countOnOrAfter(date));
+    }
+
+    /**
+     * Counts the reports of a state with dates in [from, to) (myAVL.countBetween)
+     * @param state
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @param stateAccidentsMap the map of states to AVL trees
+     * @return int
+     */
+    public int countReportsBetween(String state, LocalDate from, LocalDate to, SortedMap<String, myAVL> stateAccidentsMap) {
+        myAVL tree = stateAccidentsMap.get(state);
+        return (int) get(new Key(state, report.toSecond(from), report.toSecond(to)), version(tree),
+                () -> tree == null ? 0 : tree.countBetween(from, to));
+    }
+
+    /**
+     * Counts the reports of a state starting in the time window [from, to)
+     * @param state
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @param stateAccidentsMap the map of states to AVL trees
+     * @return int
+     */
+    public int countReportsBetween(String state, LocalDateTime from, LocalDateTime to, SortedMap<String, myAVL> stateAccidentsMap) {
+        return countReportsBetween(state, report.toSecond(from), report.toSecond(to), stateAccidentsMap);
+    }
+
+    /**
+     * Counts the reports of a state starting in [fromSecond, toSecond) (myAVL.countBetween)
+     * @param state
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @param stateAccidentsMap the map of states to AVL trees
+     * @return int
+     */
+    public int countReportsBetween(String state, long fromSecond, long toSecond, SortedMap<String, myAVL> stateAccidentsMap) {
+        myAVL tree = stateAccidentsMap.get(state);
+        return (int) get(new Key(state, fromSecond, toSecond), version(tree),
+                () -> tree == null ? 0 : tree.countBetween(fromSecond, toSecond));
+    }
+
+    private static long version(myAVL tree) {
+        return tree == null ? NO_TREE : tree.getVersion();
+    }
+
+    // Returns the cached value of key if it is still valid for the tree version, otherwise computes and caches it
+    private long get(Key key, long version, LongSupplier compute) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.version != version) {
+                    entries.remove(key);
+                    invalidations++;
+                } else if (policy.isExpired(entry.createdNanos, now)) {
+                    entries.remove(key);
+                    evictions++;
+                } else {
+                    hits++;
+                    return entry.value;
+                }
+            }
+            misses++;
+        }
+
+        long value = compute.getAsLong();
+
+        synchronized (this) {
+            entries.put(key, new Entry(value, version, now));
+            while (entries.size() > policy.capacity()) {
+                Iterator<Key> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops every entry of a state, for callers that change trees outside myAVL
+     * @param state
+     */
+    public synchronized void invalidate(String state) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getKey().state.equals(state)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    // Drops every entry
+    public synchronized void clear() {
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+    public synchronized long getMisses() {
+        return misses;
+    }
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+    public synchronized int size() {
+        return entries.size();
+    }
+    // Share of lookups answered from the cache
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache[" + entries.size() + " entries, " + hits + " hits, " + misses + " misses, "
+                + evictions + " evictions, " + invalidations + " invalidations]";
+    }
+}
@@ -0,0 +1,436 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers ReportQuery filters over the per-state AVL trees.
+ * Plan per state: the date-ordered tree narrows the query to its date range first.
+ * If no other criterion is set, counts and aggregates come straight from the
+ * subtree sizes and subtree aggregates kept by myAVL (O(log n)), and counts with
+ * only an hour window added come from rank queries per day; otherwise an
+ * in-order iterator positioned at the first date of the range scans only that
+ * range and checks the remaining criteria on int codes and flags.
+ * A query for one county or city uses a LocationIndex instead when one is set,
+ * so only the reports of that place are visited.
+ * <p>
+ * With a parallelism above 1 a query over several states fans out on a
+ * ForkJoinPool and the partial results are merged per state. Scans of large
+ * states are split by rank into time ranges of about the same number of
+ * reports, so the biggest states do not set the wall time. close() shuts down
+ * a pool created by setParallelism.
+ */
+public class QueryEngine implements AutoCloseable {
+    private final SortedMap<String, myAVL> stateAccidentsMap;
+    // Optional secondary indexes
+    private LocationIndex counties;
+    private LocationIndex cities;
+    // Pool the per-state work fans out on, null to answer on the calling thread
+    private ForkJoinPool pool;
+    // True when the pool was created by setParallelism and is shut down on the next change
+    private boolean ownPool;
+
+    // Scans of fewer reports than this are not split further
+    private static final int MIN_PIECE_SIZE = 16 * 1024;
+    // Pieces aimed for per pool thread, so uneven pieces still balance
+    private static final int PIECES_PER_THREAD = 4;
+
+    /**
+     * @param stateAccidentsMap the loaded map of states to AVL trees
+     */
+    public QueryEngine(SortedMap<String, myAVL> stateAccidentsMap) {
+        this.stateAccidentsMap = stateAccidentsMap;
+    }
+
+    /**
+     * Uses a county or city index for queries on a single county or city
+     * @param index
+     */
+    public void setLocationIndex(LocationIndex index) {
+        if (index.isByCity())
+            cities = index;
+        else
+            counties = index;
+    }
+
+    /**
+     * Sets the number of threads a query fans out on. 1 (the default) answers
+     * every query on the calling thread; a lower number than the core count
+     * leaves cores to other work in the same process.
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        setPool(parallelism == 1 ? null : new ForkJoinPool(parallelism));
+        ownPool = pool != null;
+    }
+
+    /**
+     * Fans queries out on a pool shared with other work, e.g. ForkJoinPool.commonPool()
+     * @param pool null to answer on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        if (ownPool)
+            this.pool.shutdown();
+        ownPool = false;
+        this.pool = pool;
+    }
+
+    // Returns the number of threads a query fans out on
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Shuts down the pool created by setParallelism (a pool passed to setPool is
+     * left running). Later queries are answered on the calling thread.
+     */
+    @Override
+    public void close() {
+        setPool(null);
+    }
+
+    /**
+     * Counts the matching reports over all requested states
+     * @param query
+     * @return long
+     */
+    public long count(ReportQuery query) {
+        if (pool != null) {
+            long count = 0;
+            for (Piece piece : fanOut(query, false)) {
+                count += piece.count;
+            }
+            return count;
+        }
+        long count = 0;
+        for (Map.Entry<String, myAVL> entry : selectStates(query).entrySet()) {
+            count += count(entry.getKey(), entry.getValue(), query);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the matching reports of each requested state
+     * @param query
+     * @return map of state to count, in state order
+     */
+    public TreeMap<String, Long> countByState(ReportQuery query) {
+        TreeMap<String, Long> counts = new TreeMap<>();
+        if (pool != null) {
+            for (Piece piece : fanOut(query, false)) {
+                counts.merge(piece.state, piece.count, Long::sum);
+            }
+            return counts;
+        }
+        for (Map.Entry<String, myAVL> entry : selectStates(query).entrySet()) {
+            counts.put(entry.getKey(), count(entry.getKey(), entry.getValue(), query));
+        }
+        return counts;
+    }
+
+    /**
+     * Aggregates the matching reports over all requested states
+     * @param query
+     * @return ReportAggregate
+     */
+    public ReportAggregate aggregate(ReportQuery query) {
+        ReportAggregate total = new ReportAggregate();
+        if (pool != null) {
+            for (Piece piece : fanOut(query, true)) {
+                total.merge(piece.aggregate);
+            }
+            return total;
+        }
+        for (Map.Entry<String, myAVL> entry : selectStates(query).entrySet()) {
+            total.merge(aggregate(entry.getKey(), entry.getValue(), query));
+        }
+        return total;
+    }
+
+    /**
+     * Aggregates the matching reports of each requested state
+     * @param query
+     * @return map of state to aggregate, in state order
+     */
+    public TreeMap<String, ReportAggregate> aggregateByState(ReportQuery query) {
+        TreeMap<String, ReportAggregate> aggregates = new TreeMap<>();
+        if (pool != null) {
+            for (Piece piece : fanOut(query, true)) {
+                ReportAggregate aggregate = aggregates.get(piece.state);
+                if (aggregate == null)
+                    aggregates.put(piece.state, piece.aggregate);
+                else
+                    aggregate.merge(piece.aggregate);
+            }
+            return aggregates;
+        }
+        for (Map.Entry<String, myAVL> entry : selectStates(query).entrySet()) {
+            aggregates.put(entry.getKey(), aggregate(entry.getKey(), entry.getValue(), query));
+        }
+        return aggregates;
+    }
+
+    // Counts the matching reports of one state, through a location index if one applies
+    private long count(String state, myAVL tree, ReportQuery query) {
+        LocationIndex index = locationIndex(query);
+        if (index == null) {
+            return count(tree, query);
+        }
+        String place = index.isByCity() ? query.getCity() : query.getCounty();
+        if (query.hasOnlyPlaceAndDateCriteria()) {
+            return index.countBetween(state, place, query.getFrom(), query.getTo());
+        }
+        long count = 0;
+        for (report r : index.reports(state, place, query.getFrom(), query.getTo())) {
+            if (query.matches(r))
+                count++;
+        }
+        return count;
+    }
+
+    // Aggregates the matching reports of one state, through a location index if one applies
+    private ReportAggregate aggregate(String state, myAVL tree, ReportQuery query) {
+        LocationIndex index = locationIndex(query);
+        if (index == null) {
+            return aggregate(tree, query);
+        }
+        String place = index.isByCity() ? query.getCity() : query.getCounty();
+        ReportAggregate aggregate = new ReportAggregate();
+        for (report r : index.reports(state, place, query.getFrom(), query.getTo())) {
+            if (query.matches(r))
+                aggregate.add(r);
+        }
+        return aggregate;
+    }
+
+    // Returns the index that narrows the query to one city or county, or null
+    private LocationIndex locationIndex(ReportQuery query) {
+        if (query.getCity() != null && cities != null)
+            return cities;
+        if (query.getCounty() != null && counties != null)
+            return counties;
+        return null;
+    }
+
+    /**
+     * Counts the matching reports of one tree
+     * @param tree
+     * @param query (its states are ignored)
+     * @return long
+     */
+    static long count(myAVL tree, ReportQuery query) {
+        if (query.hasOnlyDateCriteria()) {
+            return rangeSize(tree, query.getFrom(), query.getTo());
+        }
+        if (query.hasOnlyTimeCriteria()) {
+            return tree.countHourWindow(query.getFrom(), query.getTo(), query.getFromHour(), query.getToHour());
+        }
+        return count(tree, query, fromSecond(query), toSecond(query));
+    }
+
+    /**
+     * Counts the matching reports of one tree that start in [fromSecond, toSecond)
+     * by scanning them
+     * @param tree
+     * @param query (its states and dates are ignored)
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return long
+     */
+    static long count(myAVL tree, ReportQuery query, long fromSecond, long toSecond) {
+        long count = 0;
+        Iterator<report> reports = tree.iterator(fromSecond);
+        while (reports.hasNext()) {
+            report r = reports.next();
+            if (r.getStartSecond() >= toSecond)
+                break;
+            if (query.matches(r))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Aggregates the matching reports of one tree
+     * @param tree
+     * @param query (its states are ignored)
+     * @return ReportAggregate
+     */
+    static ReportAggregate aggregate(myAVL tree, ReportQuery query) {
+        if (query.hasOnlyDateCriteria()) {
+            return tree.aggregateBetween(query.getFrom(), query.getTo());
+        }
+        return aggregate(tree, query, fromSecond(query), toSecond(query));
+    }
+
+    /**
+     * Aggregates the matching reports of one tree that start in [fromSecond, toSecond)
+     * by scanning them
+     * @param tree
+     * @param query (its states and dates are ignored)
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return ReportAggregate
+     */
+    static ReportAggregate aggregate(myAVL tree, ReportQuery query, long fromSecond, long toSecond) {
+        ReportAggregate aggregate = new ReportAggregate();
+        Iterator<report> reports = tree.iterator(fromSecond);
+        while (reports.hasNext()) {
+            report r = reports.next();
+            if (r.getStartSecond() >= toSecond)
+                break;
+            if (query.matches(r))
+                aggregate.add(r);
+        }
+        return aggregate;
+    }
+
+    // Number of reports with dates in [from, to), a null bound is open
+    static int rangeSize(myAVL tree, LocalDate from, LocalDate to) {
+        int end = to == null ? tree.size() : tree.countBefore(tree.root, to);
+        int start = from == null ? 0 : tree.countBefore(tree.root, from);
+        return Math.max(0, end - start);
+    }
+
+    // Epoch second of the first day of the query, NO_TIME when it has none
+    private static long fromSecond(ReportQuery query) {
+        return report.toSecond(query.getFrom());
+    }
+
+    // Epoch second of the end day of the query, Long.MAX_VALUE when it has none
+    private static long toSecond(ReportQuery query) {
+        return query.getTo() == null ? Long.MAX_VALUE : report.toSecond(query.getTo());
+    }
+
+    // Part of a fanned-out query: a whole state, or the reports of a state starting in [from, to)
+    private static final class Piece {
+        final String state;
+        final myAVL tree;
+        final boolean whole;
+        final long from;
+        final long to;
+        // Result, set by the task that answers the piece
+        long count;
+        ReportAggregate aggregate;
+
+        Piece(String state, myAVL tree, boolean whole, long from, long to) {
+            this.state = state;
+            this.tree = tree;
+            this.whole = whole;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    // Answers pieces [lo, hi) by splitting the list in halves down to single pieces
+    private final class FanOut extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Piece> pieces;
+        private final int lo;
+        private final int hi;
+        private final ReportQuery query;
+        private final boolean aggregate;
+
+        FanOut(List<Piece> pieces, int lo, int hi, ReportQuery query, boolean aggregate) {
+            this.pieces = pieces;
+            this.lo = lo;
+            this.hi = hi;
+            this.query = query;
+            this.aggregate = aggregate;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new FanOut(pieces, lo, mid, query, aggregate), new FanOut(pieces, mid, hi, query, aggregate));
+                return;
+            }
+            Piece piece = pieces.get(lo);
+            if (aggregate) {
+                piece.aggregate = piece.whole ? aggregate(piece.state, piece.tree, query)
+                        : aggregate(piece.tree, query, piece.from, piece.to);
+            } else {
+                piece.count = piece.whole ? count(piece.state, piece.tree, query)
+                        : count(piece.tree, query, piece.from, piece.to);
+            }
+        }
+    }
+
+    /**
+     * Answers a query on the pool, one piece per state or per part of a large
+     * state, and returns the answered pieces in state order
+     * @param query
+     * @param aggregate true to aggregate, false to count
+     * @return List
+     */
+    private List<Piece> fanOut(ReportQuery query, boolean aggregate) {
+        SortedMap<String, myAVL> states = selectStates(query);
+        // only scans are split; the other plans are O(log n) per state
+        boolean scan = locationIndex(query) == null && !query.hasOnlyDateCriteria()
+                && (aggregate || !query.hasOnlyTimeCriteria());
+        long from = fromSecond(query);
+        long to = toSecond(query);
+
+        long total = 0;
+        if (scan) {
+            for (myAVL tree : states.values()) {
+                total += rangeSize(tree, query.getFrom(), query.getTo());
+            }
+        }
+        long pieceSize = Math.max(MIN_PIECE_SIZE, total / ((long) pool.getParallelism() * PIECES_PER_THREAD));
+
+        List<Piece> pieces = new ArrayList<>();
+        for (Map.Entry<String, myAVL> entry : states.entrySet()) {
+            String state = entry.getKey();
+            myAVL tree = entry.getValue();
+            if (!scan) {
+                pieces.add(new Piece(state, tree, true, from, to));
+                continue;
+            }
+            // cut the state's range at the start times of every pieceSize-th report
+            int start = query.getFrom() == null ? 0 : tree.countBefore(tree.root, query.getFrom());
+            int end = start + rangeSize(tree, query.getFrom(), query.getTo());
+            long pieceFrom = from;
+            for (long rank = start + pieceSize; rank < end; rank += pieceSize) {
+                long cut = tree.select((int) rank).getStartSecond();
+                if (cut > pieceFrom) {
+                    pieces.add(new Piece(state, tree, false, pieceFrom, cut));
+                    pieceFrom = cut;
+                }
+            }
+            pieces.add(new Piece(state, tree, false, pieceFrom, to));
+        }
+        if (!pieces.isEmpty()) {
+            pool.invoke(new FanOut(pieces, 0, pieces.size(), query, aggregate));
+        }
+        return pieces;
+    }
+
+    // Returns the trees of the requested states that have reports
+    private SortedMap<String, myAVL> selectStates(ReportQuery query) {
+        Collection<String> states = query.getStates();
+        if (states == null) {
+            return stateAccidentsMap;
+        }
+        SortedMap<String, myAVL> selected = new TreeMap<>();
+        for (String state : states) {
+            myAVL tree = stateAccidentsMap.get(state);
+            if (tree != null) {
+                selected.put(state, tree);
+            }
+        }
+        return selected;
+    }
+}
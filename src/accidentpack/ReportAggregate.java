@@ -0,0 +1,98 @@
+package accidentpack;
+
+/**
+ * Aggregates over the reports matched by a query: count, severity sum/average,
+ * max severity, a severity histogram, and how many were at a crossing or at night.
+ * Aggregates can be merged, which is how myAVL combines its per-node subtree
+ * aggregates into range aggregates.
+ */
+public class ReportAggregate {
+
+    // Histogram slots: severities 0 to 4 (the data uses 1 to 4, others are clamped)
+    static final int SEVERITY_LEVELS = 5;
+
+    private long count;
+    private long severitySum;
+    // Exact, not clamped like the histogram; only read when count > 0
+    private int maxSeverity = Integer.MIN_VALUE;
+    private final long[] severityCounts = new long[SEVERITY_LEVELS];
+    private long crossingCount;
+    private long nightCount;
+
+    // Returns the histogram slot of a severity
+    static int severityLevel(int severity) {
+        return Math.max(0, Math.min(SEVERITY_LEVELS - 1, severity));
+    }
+
+    // Adds one report
+    void add(report r) {
+        count++;
+        severitySum += r.getSeverity();
+        maxSeverity = Math.max(maxSeverity, r.getSeverity());
+        severityCounts[severityLevel(r.getSeverity())]++;
+        if (r.getCrossing())
+            crossingCount++;
+        if (r.getDayNight())
+            nightCount++;
+    }
+
+    // Adds the aggregates of a myAVL subtree
+    void add(int size, int subtreeSeveritySum, int subtreeMaxSeverity, int level0, int level1, int level2,
+            int level3, int level4, int subtreeCrossing, int subtreeNight) {
+        count += size;
+        severitySum += subtreeSeveritySum;
+        maxSeverity = Math.max(maxSeverity, subtreeMaxSeverity);
+        severityCounts[0] += level0;
+        severityCounts[1] += level1;
+        severityCounts[2] += level2;
+        severityCounts[3] += level3;
+        severityCounts[4] += level4;
+        crossingCount += subtreeCrossing;
+        nightCount += subtreeNight;
+    }
+
+    /**
+     * Adds the totals of another aggregate to this one
+     * @param other
+     */
+    public void merge(ReportAggregate other) {
+        count += other.count;
+        severitySum += other.severitySum;
+        maxSeverity = Math.max(maxSeverity, other.maxSeverity);
+        for (int i = 0; i < SEVERITY_LEVELS; i++)
+            severityCounts[i] += other.severityCounts[i];
+        crossingCount += other.crossingCount;
+        nightCount += other.nightCount;
+    }
+
+    public long getCount() {
+        return count;
+    }
+    public long getSeveritySum() {
+        return severitySum;
+    }
+    // Returns 0 when there are no reports
+    public double getAverageSeverity() {
+        return count == 0 ? 0 : (double) severitySum / count;
+    }
+    // Returns 0 when there are no reports
+    public int getMaxSeverity() {
+        return count == 0 ? 0 : maxSeverity;
+    }
+    // Returns the number of reports with a severity (clamped to the histogram slots)
+    public long getSeverityCount(int severity) {
+        return severityCounts[severityLevel(severity)];
+    }
+    public long getCrossingCount() {
+        return crossingCount;
+    }
+    public long getNightCount() {
+        return nightCount;
+    }
+
+    @Override
+    public String toString() {
+        return count + " reports, average severity " + String.format("%.3f", getAverageSeverity())
+                + ", max severity " + getMaxSeverity() + ", " + crossingCount + " at crossings, " + nightCount + " at night";
+    }
+}
@@ -0,0 +1,231 @@
+package accidentpack;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Micro-benchmarks for ingestion, tree building and counting, run against a
+ * synthetic accident csv of configurable size. Every benchmark runs warmup
+ * iterations first (so the JIT has compiled the hot paths) and then reports the
+ * mean, min and max of the measured iterations with full precision.
+ * <p>
+ * Usage: java accidentpack.ReportBenchmark [rows] [warmup] [iterations] [name filter]
+ */
+public class ReportBenchmark {
+
+    private static final String[] STATES = { "CA", "TX", "FL", "IL", "NY", "OH", "WA", "AZ" };
+    private static final String[] WEATHER = { "Fair", "Cloudy", "Rain", "Snow", "Fog", "Mostly Cloudy" };
+
+    // Results are folded into this field so the JIT cannot drop the measured work
+    static volatile long sink;
+
+    private final int warmup;
+    private final int iterations;
+    private final String filter;
+
+    ReportBenchmark(int warmup, int iterations, String filter) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        String filter = args.length > 3 ? args[3] : "";
+
+        File csv = File.createTempFile("accidents-bench", ".csv");
+        csv.deleteOnExit();
+        writeSyntheticCsv(csv, rows, 42);
+        System.out.printf(Locale.ROOT, "%d synthetic rows, %d warmup + %d measured iterations%n", rows, warmup, iterations);
+
+        new ReportBenchmark(warmup, iterations, filter).runAll(csv.getPath(), rows);
+    }
+
+    // Runs every benchmark whose name contains the filter
+    void runAll(String filename, int rows) throws Exception {
+        List<String> lines = new ArrayList<>(rows);
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            br.readLine();
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        List<report> reports = new ArrayList<>(rows);
+        MappedReportParser.parse(filename, reports::add);
+        List<report> state = new ArrayList<>();
+        for (report r : reports) {
+            if (r.getState().equals(STATES[0])) {
+                state.add(r);
+            }
+        }
+
+        // parsing
+        run("parse.readfile", lines.size(), () -> {
+            long sum = 0;
+            for (String line : lines)
+                sum += ReportHelper.readfile(line).getSeverity();
+            return sum;
+        });
+        run("parse.dateConvert", lines.size(), () -> {
+            long sum = 0;
+            for (String line : lines)
+                sum += ReportHelper.dateConvert(line.split(",")[2]).getDayOfMonth();
+            return sum;
+        });
+        run("parse.mapped", lines.size(), () -> {
+            long[] sum = new long[1];
+            MappedReportParser.parse(filename, r -> sum[0] += r.getSeverity());
+            return sum[0];
+        });
+
+        // building one state's tree
+        run("build.insert", state.size(), () -> {
+            myAVL tree = new myAVL();
+            for (report r : state)
+                tree.insert(r);
+            return (long) tree.size();
+        });
+        // add() rejects (and prints) reports whose date is already in the tree,
+        // so it is measured on one report per date
+        List<report> distinct = new ArrayList<>();
+        HashSet<LocalDate> seen = new HashSet<>();
+        for (report r : state) {
+            if (seen.add(r.getStartTime())) {
+                distinct.add(r);
+            }
+        }
+        run("build.add (distinct dates)", distinct.size(), () -> {
+            myAVL tree = new myAVL();
+            for (report r : distinct)
+                tree.add(r);
+            return (long) tree.size();
+        });
+        run("build.insert (distinct dates)", distinct.size(), () -> {
+            myAVL tree = new myAVL();
+            for (report r : distinct)
+                tree.insert(r);
+            return (long) tree.size();
+        });
+        run("build.bulkLoad", state.size(), () -> (long) myAVL.bulkLoad(state).size());
+
+        // counting at different selectivities (share of the reports on or after the date).
+        // countAfter on the root is answered by the tree's DailyHistogram; countBefore
+        // with an epoch second walks the subtree sizes (the tree is not frozen)
+        myAVL tree = myAVL.bulkLoad(state);
+        List<report> sorted = new ArrayList<>(tree.size());
+        tree.collectInOrder(tree.root, sorted);
+        for (int percent : new int[] { 1, 10, 50, 90, 100 }) {
+            int position = Math.max(0, sorted.size() - sorted.size() * percent / 100);
+            report first = sorted.get(Math.min(position, sorted.size() - 1));
+            LocalDate date = first.getStartTime();
+            long second = first.getStartSecond();
+            int queries = 10_000;
+            run("count.histogram.countAfter." + percent + "%", queries, () -> {
+                long sum = 0;
+                for (int i = 0; i < queries; i++)
+                    sum += tree.countAfter(tree.root, date);
+                return sum;
+            });
+            run("count.rank.countBefore." + percent + "%", queries, () -> {
+                long sum = 0;
+                for (int i = 0; i < queries; i++)
+                    sum += tree.countBefore(tree.root, second);
+                return sum;
+            });
+        }
+
+        // full loads
+        run("load.readAccidentReports", rows, () -> total(ReportHelper.readAccidentReports(filename)));
+        run("load.bulkLoadAccidentReports", rows, () -> total(ReportHelper.bulkLoadAccidentReports(filename)));
+        run("load.parallel", rows, () -> total(ParallelReportReader.readAccidentReports(filename)));
+    }
+
+    /**
+     * Runs one benchmark and prints its timing
+     * @param name
+     * @param operations operations per iteration, for the per-operation time
+     * @param body the measured work, returns a value that is kept alive
+     */
+    void run(String name, int operations, Callable<Long> body) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < warmup; i++) {
+            sink += body.call();
+        }
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long time1 = System.nanoTime();
+            sink += body.call();
+            long elapsed = System.nanoTime() - time1;
+            min = Math.min(min, elapsed);
+            max = Math.max(max, elapsed);
+            total += elapsed;
+        }
+        double mean = (double) total / iterations;
+        System.out.printf(Locale.ROOT, "%-32s mean %12.3f ms  min %12.3f ms  max %12.3f ms  %10.1f ns/op%n",
+                name, mean / 1e6, min / 1e6, max / 1e6, mean / Math.max(1, operations));
+    }
+
+    private static long total(SortedMap<String, myAVL> stateAccidentsMap) {
+        long count = 0;
+        for (myAVL tree : stateAccidentsMap.values())
+            count += tree.size();
+        return count;
+    }
+
+    /**
+     * Writes a csv in the accident format with random values
+     * @param file
+     * @param rows number of data lines
+     * @param seed random seed, the same seed gives the same file
+     */
+    static void writeSyntheticCsv(File file, int rows, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            out.write("ID,Severity,Start_Time,End_Time,Street,City,County,State,Temperature(F),Humidity(%),"
+                    + "Visibility(mi),Weather_Condition,Crossing,Sunrise_Sunset\n");
+            StringBuilder line = new StringBuilder(160);
+            for (int i = 0; i < rows; i++) {
+                LocalDate day = LocalDate.of(2016, 1, 1).plusDays(random.nextInt(8 * 365));
+                int hour = random.nextInt(23);
+                int minute = random.nextInt(60);
+                int second = random.nextInt(60);
+                line.setLength(0);
+                line.append("A-").append(i).append(',')
+                        .append(1 + random.nextInt(4)).append(',')
+                        .append(String.format(Locale.ROOT, "%s %02d:%02d:%02d", day, hour, minute, second))
+                        .append(random.nextBoolean() ? ".000000000" : "").append(',')
+                        .append(String.format(Locale.ROOT, "%s %02d:%02d:%02d", day, hour + 1, minute, second)).append(',')
+                        .append("Street ").append(random.nextInt(500)).append(',')
+                        .append("City").append(random.nextInt(200)).append(',')
+                        .append("County").append(random.nextInt(50)).append(',')
+                        .append(STATES[random.nextInt(STATES.length)]).append(',')
+                        .append(String.format(Locale.ROOT, "%.1f", -10 + random.nextDouble() * 110)).append(',')
+                        .append(String.format(Locale.ROOT, "%.1f", random.nextDouble() * 100)).append(',')
+                        .append(String.format(Locale.ROOT, "%.1f", random.nextDouble() * 10)).append(',')
+                        .append(WEATHER[random.nextInt(WEATHER.length)]).append(',')
+                        .append(random.nextBoolean() ? "TRUE" : "FALSE").append(',')
+                        .append(random.nextBoolean() ? "Night" : "Day").append('\n');
+                out.write(line.toString());
+            }
+        }
+    }
+}
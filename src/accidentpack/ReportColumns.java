@@ -0,0 +1,366 @@
+package accidentpack;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Columnar storage for the reports of one state. Every report is a row offset
+ * into primitive arrays instead of a report object with String and LocalDate
+ * fields. Text columns hold the report's ReportDictionary codes, start and end
+ * times are epoch seconds, and the crossing and day/night flags are packed bitsets.
+ * After buildIndex() the rows can be searched by start time through an int[] of
+ * row offsets sorted by start time.
+ */
+public class ReportColumns {
+
+    // Returned by getStartDay/getEndDay for a missing time
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final String state;
+    private int rows;
+
+    // report.NO_TIME for a missing time
+    private long[] startTime;
+    private long[] endTime;
+    private byte[] severity;
+    private short[] temp;
+    private short[] humidity;
+    private short[] visibility;
+    private long[] crossing;
+    private long[] night;
+    private int[] street;
+    private int[] city;
+    private int[] county;
+    private int[] weather;
+
+    // IDs are UTF-8 bytes of the blob, row i is [idStart[i], idStart[i + 1])
+    private byte[] ids;
+    private int[] idStart;
+
+    // Row offsets sorted by start date (stable), built by buildIndex()
+    private int[] byStart;
+
+    /**
+     * @param state the state of every row
+     */
+    public ReportColumns(String state) {
+        this.state = state;
+        int capacity = 16;
+        startTime = new long[capacity];
+        endTime = new long[capacity];
+        severity = new byte[capacity];
+        temp = new short[capacity];
+        humidity = new short[capacity];
+        visibility = new short[capacity];
+        crossing = new long[1];
+        night = new long[1];
+        street = new int[capacity];
+        city = new int[capacity];
+        county = new int[capacity];
+        weather = new int[capacity];
+        ids = new byte[capacity * 8];
+        idStart = new int[capacity + 1];
+    }
+
+    /**
+     * Appends a report as a new row. The date index has to be rebuilt afterwards.
+     * @param r
+     * @return the row offset of the report
+     * @throws IllegalArgumentException if a value does not fit its column
+     */
+    public int add(report r) {
+        checkRow(r);
+        if (rows == startTime.length) {
+            grow();
+        }
+        int row = rows;
+        startTime[row] = r.getStartSecond();
+        endTime[row] = r.getEndSecond();
+        severity[row] = (byte) r.getSeverity();
+        temp[row] = (short) r.getTemp();
+        humidity[row] = (short) r.getHumidity();
+        visibility[row] = (short) r.getVisibility();
+        if (r.getCrossing()) {
+            crossing[row >>> 6] |= 1L << row;
+        }
+        if (r.getDayNight()) {
+            night[row >>> 6] |= 1L << row;
+        }
+        street[row] = r.getStreetCode();
+        city[row] = r.getCityCode();
+        county[row] = r.getCountyCode();
+        weather[row] = r.getWeatherCode();
+
+        byte[] id = r.getID().getBytes(StandardCharsets.UTF_8);
+        int idEnd = idStart[row] + id.length;
+        if (idEnd > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(idEnd, ids.length * 2));
+        }
+        System.arraycopy(id, 0, ids, idStart[row], id.length);
+        idStart[row + 1] = idEnd;
+
+        rows++;
+        byStart = null;
+        return row;
+    }
+
+    /**
+     * Checks that the severity fits a byte column and the temperature, humidity
+     * and visibility fit short columns, before any column is written
+     * @param r
+     * @throws IllegalArgumentException if a value does not fit its column
+     */
+    static void checkRow(report r) {
+        checkRange(r, "severity", r.getSeverity(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+        checkRange(r, "temperature", r.getTemp(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "humidity", r.getHumidity(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "visibility", r.getVisibility(), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    private static void checkRange(report r, String column, int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Report " + r.getID() + ": " + column + " " + value
+                    + " does not fit the columns (" + min + " to " + max + ")");
+        }
+    }
+
+    // Doubles the capacity of every column
+    private void grow() {
+        int capacity = Math.max(16, startTime.length * 2);
+        startTime = Arrays.copyOf(startTime, capacity);
+        endTime = Arrays.copyOf(endTime, capacity);
+        severity = Arrays.copyOf(severity, capacity);
+        temp = Arrays.copyOf(temp, capacity);
+        humidity = Arrays.copyOf(humidity, capacity);
+        visibility = Arrays.copyOf(visibility, capacity);
+        crossing = Arrays.copyOf(crossing, (capacity + 63) >>> 6);
+        night = Arrays.copyOf(night, (capacity + 63) >>> 6);
+        street = Arrays.copyOf(street, capacity);
+        city = Arrays.copyOf(city, capacity);
+        county = Arrays.copyOf(county, capacity);
+        weather = Arrays.copyOf(weather, capacity);
+        idStart = Arrays.copyOf(idStart, capacity + 1);
+    }
+
+    /**
+     * Trims the columns to the number of rows and sorts the row offsets by
+     * start time (rows with equal times keep their insertion order)
+     */
+    public void buildIndex() {
+        if (rows < startTime.length) {
+            startTime = Arrays.copyOf(startTime, rows);
+            endTime = Arrays.copyOf(endTime, rows);
+            severity = Arrays.copyOf(severity, rows);
+            temp = Arrays.copyOf(temp, rows);
+            humidity = Arrays.copyOf(humidity, rows);
+            visibility = Arrays.copyOf(visibility, rows);
+            crossing = Arrays.copyOf(crossing, Math.max(1, (rows + 63) >>> 6));
+            night = Arrays.copyOf(night, Math.max(1, (rows + 63) >>> 6));
+            street = Arrays.copyOf(street, rows);
+            city = Arrays.copyOf(city, rows);
+            county = Arrays.copyOf(county, rows);
+            weather = Arrays.copyOf(weather, rows);
+            ids = Arrays.copyOf(ids, idStart[rows]);
+            idStart = Arrays.copyOf(idStart, rows + 1);
+        }
+
+        // sort (start, row) pairs packed in a long: the start time relative to the
+        // earliest one in the high bits, the row in the low bits
+        int rowBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, rows));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < rows; row++) {
+            if (startTime[row] != report.NO_TIME) {
+                min = Math.min(min, startTime[row]);
+                max = Math.max(max, startTime[row]);
+            }
+        }
+        byStart = new int[rows];
+        if (min > max || max - min < (1L << (62 - rowBits))) {
+            long[] keys = new long[rows];
+            for (int row = 0; row < rows; row++) {
+                // missing times sort first
+                long relative = startTime[row] == report.NO_TIME ? 0 : startTime[row] - min + 1;
+                keys[row] = (relative << rowBits) | row;
+            }
+            Arrays.sort(keys);
+            long rowMask = (1L << rowBits) - 1;
+            for (int i = 0; i < rows; i++) {
+                byStart[i] = (int) (keys[i] & rowMask);
+            }
+        } else {
+            // times too far apart to pack: stable sort of boxed row offsets
+            Integer[] order = new Integer[rows];
+            for (int row = 0; row < rows; row++) {
+                order[row] = row;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(startTime[a], startTime[b]));
+            for (int i = 0; i < rows; i++) {
+                byStart[i] = order[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of rows with a start date before the given date
+     * (position of date in the date index)
+     * @param date
+     * @return int
+     */
+    public int countBefore(LocalDate date) {
+        return countBefore(report.toSecond(date));
+    }
+
+    /**
+     * Returns the number of rows starting before the given epoch second
+     * @param second
+     * @return int
+     */
+    public int countBefore(long second) {
+        int[] index = index();
+        int lo = 0;
+        int hi = rows;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            // NO_TIME is the smallest long, so missing times come first
+            if (startTime[index[mid]] < second)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Counts the rows with a start date on or after the given date
+     * @param date
+     * @return int
+     */
+    public int countOnOrAfter(LocalDate date) {
+        return rows - countBefore(date);
+    }
+
+    /**
+     * Counts the rows with a start date in [from, to)
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countBetween(LocalDate from, LocalDate to) {
+        return countBetween(report.toSecond(from), report.toSecond(to));
+    }
+
+    /**
+     * Counts the rows starting in the time window [from, to)
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countBetween(LocalDateTime from, LocalDateTime to) {
+        return countBetween(report.toSecond(from), report.toSecond(to));
+    }
+
+    /**
+     * Counts the rows starting in [fromSecond, toSecond)
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return int
+     */
+    public int countBetween(long fromSecond, long toSecond) {
+        if (fromSecond >= toSecond)
+            return 0;
+        return countBefore(toSecond) - countBefore(fromSecond);
+    }
+
+    /**
+     * Returns the row offset at a position of the date index
+     * @param position 0 for the earliest report
+     * @return row offset
+     */
+    public int rowAt(int position) {
+        return index()[position];
+    }
+
+    private int[] index() {
+        if (byStart == null) {
+            buildIndex();
+        }
+        return byStart;
+    }
+
+    /**
+     * Materializes a row as a report object
+     * @param row
+     * @return report
+     */
+    public report toReport(int row) {
+        return new report(getID(row), severity[row], startTime[row], endTime[row],
+                ReportDictionary.STREETS.decode(street[row]), ReportDictionary.CITIES.decode(city[row]),
+                ReportDictionary.COUNTIES.decode(county[row]), state, temp[row], humidity[row],
+                visibility[row], ReportDictionary.WEATHER.decode(weather[row]),
+                getCrossing(row), getNight(row));
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    // Returns the number of rows
+    public int size() {
+        return rows;
+    }
+
+    public String getID(int row) {
+        return new String(ids, idStart[row], idStart[row + 1] - idStart[row], StandardCharsets.UTF_8);
+    }
+    public int getSeverity(int row) {
+        return severity[row];
+    }
+    // Epoch day of the start time, NO_DATE if it is missing
+    public int getStartDay(int row) {
+        return epochDay(startTime[row]);
+    }
+    // Epoch day of the end time, NO_DATE if it is missing
+    public int getEndDay(int row) {
+        return epochDay(endTime[row]);
+    }
+    public long getStartSecond(int row) {
+        return startTime[row];
+    }
+    public long getEndSecond(int row) {
+        return endTime[row];
+    }
+    public int getTemp(int row) {
+        return temp[row];
+    }
+    public int getHumidity(int row) {
+        return humidity[row];
+    }
+    public int getVisibility(int row) {
+        return visibility[row];
+    }
+    public boolean getCrossing(int row) {
+        return (crossing[row >>> 6] & (1L << row)) != 0;
+    }
+    public boolean getNight(int row) {
+        return (night[row >>> 6] & (1L << row)) != 0;
+    }
+    public int getStreetCode(int row) {
+        return street[row];
+    }
+    public int getCityCode(int row) {
+        return city[row];
+    }
+    public int getCountyCode(int row) {
+        return county[row];
+    }
+    public int getWeatherCode(int row) {
+        return weather[row];
+    }
+
+    static int epochDay(long second) {
+        return second == report.NO_TIME ? NO_DATE : (int) Math.floorDiv(second, report.SECONDS_PER_DAY);
+    }
+}
@@ -0,0 +1,18 @@
+package accidentpack;
+
+/**
+ * Process-wide dictionaries for the low-cardinality text columns of report.
+ * Every report interns its street, city, county, state and weather through
+ * these, so a few thousand distinct values are held once instead of once per
+ * row, and report exposes int codes that queries can compare instead of Strings.
+ */
+public final class ReportDictionary {
+    public static final StringDictionary STREETS = new StringDictionary();
+    public static final StringDictionary CITIES = new StringDictionary();
+    public static final StringDictionary COUNTIES = new StringDictionary();
+    public static final StringDictionary STATES = new StringDictionary();
+    public static final StringDictionary WEATHER = new StringDictionary();
+
+    private ReportDictionary() {
+    }
+}
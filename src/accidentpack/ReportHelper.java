@@ -1,20 +1,26 @@
 package accidentpack;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 
-import accidentpack.myAVL.Node;
-
 public class ReportHelper {
 	
+	// Results of the count methods below; every tree has its own versions, so one cache serves all maps
+	private static final QueryCache QUERY_CACHE = new QueryCache(QueryCache.lru(4096));
+	
+	// Returns the cache behind countReportsAVL and countReportsBetweenAVL
+	public static QueryCache getQueryCache() {
+		return QUERY_CACHE;
+	}
+	
 	/**
 	 * @author abard
 	 * counts the number of reports on and after a given date in a given state
@@ -32,12 +38,95 @@ public class ReportHelper {
 			return count;
 		}
 	}
-	public static int countReportsAVL(String state, LocalDate date, TreeMap<String, myAVL> report) {
-		myAVL map = report.get(state);
-		Node root = map.root;
-		int count = map.countAfter(map.findNode(root, date), date);
+	/**
+	 * counts the number of reports on and after a given date in a given state
+	 * using the subtree sizes kept by myAVL (O(log n)), answered from the query
+	 * cache while the state's tree is unchanged
+	 * @param state
+	 * @param date
+	 * @param report
+	 * @return int
+	 */
+	public static int countReportsAVL(String state, LocalDate date, SortedMap<String, myAVL> report) {
+		long start = System.nanoTime();
+		int count = QUERY_CACHE.countReports(state, date, report);
+		ReportMetrics.get().recordQuery(System.nanoTime() - start);
 		return count;
 	}
+
+	/**
+	 * counts the number of reports in a given state with dates in [from, to)
+	 * @param state
+	 * @param from inclusive lower bound
+	 * @param to exclusive upper bound
+	 * @param report
+	 * @return int
+	 */
+	public static int countReportsBetweenAVL(String state, LocalDate from, LocalDate to, SortedMap<String, myAVL> report) {
+		return QUERY_CACHE.countReportsBetween(state, from, to, report);
+	}
+
+	/**
+	 * counts the number of reports in a given state starting in the time window [from, to)
+	 * @param state
+	 * @param from inclusive lower bound
+	 * @param to exclusive upper bound
+	 * @param report
+	 * @return int
+	 */
+	public static int countReportsBetweenAVL(String state, LocalDateTime from, LocalDateTime to, SortedMap<String, myAVL> report) {
+		return QUERY_CACHE.countReportsBetween(state, from, to, report);
+	}
+
+	/**
+	 * counts the number of reports in a given state on the days [from, to) that
+	 * start between fromHour and toHour of their day (see myAVL.countHourWindow)
+	 * @param state
+	 * @param from first day, null for no lower bound
+	 * @param to last day (exclusive), null for no upper bound
+	 * @param fromHour first hour (0-23)
+	 * @param toHour end hour (exclusive, 0-24)
+	 * @param report
+	 * @return int
+	 */
+	public static int countReportsInHoursAVL(String state, LocalDate from, LocalDate to, int fromHour, int toHour,
+			SortedMap<String, myAVL> report) {
+		myAVL map = report.get(state);
+		if(map == null) {
+			return 0;
+		}
+		return map.countHourWindow(from, to, fromHour, toHour);
+	}
+
+	/**
+	 * counts the reports of a given state on the days [from, to) by hour of day
+	 * @param state
+	 * @param from first day, null for no lower bound
+	 * @param to last day (exclusive), null for no upper bound
+	 * @param report
+	 * @return counts indexed by hour (0-23)
+	 */
+	public static int[] countReportsByHourAVL(String state, LocalDate from, LocalDate to, SortedMap<String, myAVL> report) {
+		myAVL map = report.get(state);
+		if(map == null) {
+			return new int[24];
+		}
+		return map.countByHour(from, to);
+	}
+
+	/**
+	 * counts the reports of a given state per month, from its first to its last report
+	 * @param state
+	 * @param report
+	 * @return map of month to count, in month order
+	 */
+	public static TreeMap<YearMonth, Integer> countReportsByMonthAVL(String state, SortedMap<String, myAVL> report) {
+		myAVL map = report.get(state);
+		if(map == null) {
+			return new TreeMap<>();
+		}
+		return map.countByMonth();
+	}
 	
 	/**
 	 * @author abard
@@ -62,57 +151,129 @@ public class ReportHelper {
      * @param filename the path to the csv file
      * @return a map of states to tree maps of accidents
      */
-    public static TreeMap<String, myAVL> readAccidentReports(String filename) {
-        TreeMap<String, myAVL> stateAccidentsMap = new TreeMap<>();
+    public static SortedMap<String, myAVL> readAccidentReports(String filename) {
+        SortedMap<String, myAVL> stateAccidentsMap = new StateTable<>();
+        ParseErrors errors = new ParseErrors();
         
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            br.readLine(); // Skip header line
-            //int count = 0;
-            //int limit = 1000000;
-            while ((line = br.readLine()) != null ) {
-                report accidentReport = readfile(line);
+        try {
+            // parse the memory-mapped file directly (header line is skipped)
+            MappedReportParser.parse(filename, accidentReport -> {
                 String state = accidentReport.getState();
-                LocalDate startDate = accidentReport.getStartTime();
-                
-                // Check if the state already exists in the outer map
-                if (!stateAccidentsMap.containsKey(state)) {
-                    // If not, create a new TreeMap for the state
-                    stateAccidentsMap.put(state, new myAVL());
-                    
-                    // Get the TreeMap for the current state
-                    myAVL stateAccidents = stateAccidentsMap.get(state);
-                    //add report to AVL tree
-                    stateAccidents.add(accidentReport);
-                    //add avl tree to treemap
-                    stateAccidentsMap.put(state, stateAccidents);
-                }else {
-                // Get the TreeMap for the current state
                 myAVL stateAccidents = stateAccidentsMap.get(state);
-                //add report to AVL tree
-                stateAccidents.BSTInsert(stateAccidents.root, accidentReport);
-                //add AVL tree to treemap
-                stateAccidentsMap.put(state, stateAccidents);
+                // If the state is not in the outer map yet, create its AVL tree
+                if (stateAccidents == null) {
+                    stateAccidents = new myAVL();
+                    stateAccidentsMap.put(state, stateAccidents);
                 }
-            }
+                //add report to AVL tree, keeping the (possibly rotated) root
+                stateAccidents.insert(accidentReport);
+            }, errors);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (!errors.isEmpty()) {
+            errors.print(System.err);
+        }
         
         return stateAccidentsMap;
     }
     
+    /**
+     * Reads a csv file like readAccidentReports() but buffers each state's reports
+     * and bulk-builds balanced AVL trees from them (see myAVL.bulkLoad)
+     * @param filename the path to the csv file
+     * @return a map of states to balanced AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> bulkLoadAccidentReports(String filename) {
+        StateTable<List<report>> stateReports = new StateTable<>();
+        ParseErrors errors = new ParseErrors();
+        try {
+            MappedReportParser.parse(filename, accidentReport -> {
+                List<report> reports = stateReports.get(accidentReport.getState());
+                if (reports == null) {
+                    reports = new ArrayList<>();
+                    stateReports.put(accidentReport.getState(), reports);
+                }
+                reports.add(accidentReport);
+            }, errors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!errors.isEmpty()) {
+            errors.print(System.err);
+        }
+
+        SortedMap<String, myAVL> stateAccidentsMap = new StateTable<>();
+        for (String state : stateReports.keySet()) {
+            stateAccidentsMap.put(state, myAVL.bulkLoad(stateReports.get(state)));
+        }
+        return stateAccidentsMap;
+    }
+    
+    /**
+     * Checks every row of a csv file without building any trees
+     * @param filename the path to the csv file
+     * @return the malformed rows
+     */
+    public static ParseErrors validateAccidentReports(String filename) {
+        ParseErrors errors = new ParseErrors();
+        try {
+            MappedReportParser.parse(filename, accidentReport -> { }, errors);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return errors;
+    }
+    
+    /**
+     * Writes a loaded state index to a compact binary snapshot (see ReportSnapshot)
+     * @param stateAccidentsMap the map of states to AVL trees
+     * @param filename the snapshot file to create
+     */
+    public static void writeSnapshot(SortedMap<String, myAVL> stateAccidentsMap, String filename) {
+        try {
+            ReportSnapshot.write(stateAccidentsMap, filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Loads a state index from a snapshot written by writeSnapshot(), without parsing any csv
+     * @param filename the snapshot file
+     * @return a map of states to AVL trees of accidents
+     */
+    public static SortedMap<String, myAVL> readSnapshot(String filename) {
+        try {
+            return ReportSnapshot.read(filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new StateTable<>();
+        }
+    }
+
+    /**
+     * Freezes every state's tree for a read-only phase (see myAVL.freeze)
+     * @param stateAccidentsMap the map of states to AVL trees
+     */
+    public static void freezeAll(SortedMap<String, myAVL> stateAccidentsMap) {
+        for (myAVL tree : stateAccidentsMap.values()) {
+            tree.freeze();
+        }
+    }
+    
     /**
      * @author abard & Devin C
      * Reads lines from a csv file and converts them to report objects
+     * (not timed per row: the loaders record parse metrics once per file, see MappedReportParser)
      * @param line the line being read into a report object
      */
-    private static report readfile(String line) {
+    static report readfile(String line) {
         String[] items = line.split(",");
         String id = items[0];
         int severity = Integer.parseInt(items[1]);
-        LocalDate startTime = dateConvert(items[2]);
-        LocalDate endTime = dateConvert(items[3]);
+        long startTime = timeConvert(items[2]);
+        long endTime = timeConvert(items[3]);
         String street = items[4];
         String city = items[5];
         String county = items[6];
@@ -130,30 +291,36 @@ public class ReportHelper {
     
     //  Taken from Dr. Behrooz Mansouri
     
-    //  Create a formatter with the specific date-time format
-    static DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    
     /**
      * @author Dr. Behrooz Mansouri
      * This method takes in the string representation of dateTime and return LocalDate object
+     * (parsed by position with FastDateParser; the fraction after the seconds is ignored)
      * @param dateTimeString
      * @return
      */
     public static LocalDate dateConvert(String dateTimeString)
     {
-        // for some of the instances the after seconds there are 0s; this line will remove them
-        dateTimeString = dateTimeString.split("\\.")[0];
+        int epochDay = FastDateParser.parseEpochDay(dateTimeString);
+        if (epochDay == FastDateParser.INVALID_DAY) {
+            System.err.println("Error parsing date-time string: " + dateTimeString);
+            return null;
+        }
+        return LocalDate.ofEpochDay(epochDay);
+    }
 
-        // Parse the string using the formatter
-        LocalDate localDate;
-        try {
-            localDate = LocalDate.parse(dateTimeString, formatter);
-          } catch (Exception e) {
-            // Handle parsing exception, e.g., invalid format, invalid date
-            System.err.println("Error parsing date-time string: " + e.getMessage());
-            localDate = null;
-          }
-        return localDate;
+    /**
+     * Like dateConvert, but keeps the time of day
+     * @param dateTimeString
+     * @return seconds since 1970-01-01 00:00:00, or report.NO_TIME
+     */
+    public static long timeConvert(String dateTimeString)
+    {
+        long epochSecond = FastDateParser.parseEpochSecond(dateTimeString);
+        if (epochSecond == FastDateParser.INVALID_SECOND) {
+            System.err.println("Error parsing date-time string: " + dateTimeString);
+            return report.NO_TIME;
+        }
+        return epochSecond;
     }
 
 }
@@ -0,0 +1,223 @@
+package accidentpack;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process-wide metrics for ingestion and queries: rows parsed and parse time,
+ * parse failures, count query latencies, and (read when reported) the size,
+ * height, rotations and rebalances of every tree of the watched state map.
+ * Counters are LongAdders and latencies go to a LatencyHistogram, so recording
+ * never locks. Published through JMX by register() and printed as text by dump()
+ * or periodically by startDump().
+ */
+public class ReportMetrics implements ReportMetricsMBean {
+
+    private static final ReportMetrics INSTANCE = new ReportMetrics();
+    private static final String OBJECT_NAME = "accidentpack:type=ReportMetrics";
+
+    private final LongAdder rowsParsed = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder parseFailures = new LongAdder();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private volatile SortedMap<String, myAVL> stateAccidentsMap;
+
+    private ReportMetrics() {
+    }
+
+    // Returns the process-wide metrics
+    public static ReportMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a batch of parsed rows
+     * @param rows number of rows parsed
+     * @param nanos time spent parsing them
+     */
+    public void recordParse(long rows, long nanos) {
+        rowsParsed.add(rows);
+        parseNanos.add(nanos);
+    }
+
+    // Records malformed rows
+    public void recordParseFailures(long rows) {
+        parseFailures.add(rows);
+    }
+
+    /**
+     * Records the latency of one count query
+     * @param nanos
+     */
+    public void recordQuery(long nanos) {
+        queryLatency.record(nanos);
+    }
+
+    /**
+     * Reports the trees of this map in the tree statistics
+     * @param stateAccidentsMap
+     */
+    public void watch(SortedMap<String, myAVL> stateAccidentsMap) {
+        this.stateAccidentsMap = stateAccidentsMap;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server (once)
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints dump() every interval on a daemon thread
+     * @param out
+     * @param intervalMillis
+     * @return the scheduler, shut it down to stop
+     */
+    public ScheduledExecutorService startDump(PrintStream out, long intervalMillis) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "report-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> out.print(dump()), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return scheduler;
+    }
+
+    @Override
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    // Rows per second of time spent in parse calls, including the sink (per thread for parallel loads)
+    @Override
+    public double getParseRowsPerSecond() {
+        long nanos = parseNanos.sum();
+        return nanos == 0 ? 0 : rowsParsed.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return queryLatency.getCount();
+    }
+
+    @Override
+    public long getQueryLatencyP50Nanos() {
+        return queryLatency.getPercentile(50);
+    }
+
+    @Override
+    public long getQueryLatencyP99Nanos() {
+        return queryLatency.getPercentile(99);
+    }
+
+    @Override
+    public long getQueryLatencyMaxNanos() {
+        return queryLatency.getMax();
+    }
+
+    @Override
+    public int getStateCount() {
+        SortedMap<String, myAVL> map = stateAccidentsMap;
+        return map == null ? 0 : map.size();
+    }
+
+    @Override
+    public long getTotalReports() {
+        long total = 0;
+        for (myAVL tree : trees()) {
+            total += tree.size();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalRotations() {
+        long total = 0;
+        for (myAVL tree : trees()) {
+            total += tree.getLeftRotationCount() + tree.getRightRotationCount();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalRebalances() {
+        long total = 0;
+        for (myAVL tree : trees()) {
+            total += tree.getRebalanceCount();
+        }
+        return total;
+    }
+
+    @Override
+    public String[] getTreeStats() {
+        SortedMap<String, myAVL> map = stateAccidentsMap;
+        if (map == null) {
+            return new String[0];
+        }
+        List<String> stats = new ArrayList<>();
+        for (Map.Entry<String, myAVL> entry : map.entrySet()) {
+            myAVL tree = entry.getValue();
+            stats.add(entry.getKey() + " size=" + tree.size() + " height=" + tree.Height(tree.root)
+                    + " rotations=" + (tree.getLeftRotationCount() + tree.getRightRotationCount())
+                    + " rebalances=" + tree.getRebalanceCount());
+        }
+        return stats.toArray(new String[0]);
+    }
+
+    // Returns every metric as text, one per line
+    @Override
+    public String dump() {
+        StringBuilder text = new StringBuilder();
+        text.append("rows parsed: ").append(getRowsParsed())
+                .append(String.format(" (%.0f rows/s)", getParseRowsPerSecond())).append('\n');
+        text.append("parse failures: ").append(getParseFailures()).append('\n');
+        text.append("count queries: ").append(queryLatency).append('\n');
+        text.append("states: ").append(getStateCount()).append(", reports: ").append(getTotalReports())
+                .append(", rotations: ").append(getTotalRotations())
+                .append(", rebalances: ").append(getTotalRebalances()).append('\n');
+        for (String stat : getTreeStats()) {
+            text.append("  ").append(stat).append('\n');
+        }
+        return text.toString();
+    }
+
+    // Clears the counters and the histogram (tree statistics are read from the trees)
+    @Override
+    public void reset() {
+        rowsParsed.reset();
+        parseNanos.reset();
+        parseFailures.reset();
+        queryLatency.reset();
+    }
+
+    private Iterable<myAVL> trees() {
+        SortedMap<String, myAVL> map = stateAccidentsMap;
+        return map == null ? new ArrayList<>() : map.values();
+    }
+}
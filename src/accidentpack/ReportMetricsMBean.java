@@ -0,0 +1,22 @@
+package accidentpack;
+
+/**
+ * JMX view of ReportMetrics (registered as accidentpack:type=ReportMetrics)
+ */
+public interface ReportMetricsMBean {
+    long getRowsParsed();
+    long getParseFailures();
+    double getParseRowsPerSecond();
+    long getQueryCount();
+    long getQueryLatencyP50Nanos();
+    long getQueryLatencyP99Nanos();
+    long getQueryLatencyMaxNanos();
+    int getStateCount();
+    long getTotalReports();
+    long getTotalRotations();
+    long getTotalRebalances();
+    // One "state size=... height=... rotations=... rebalances=..." line per state
+    String[] getTreeStats();
+    String dump();
+    void reset();
+}
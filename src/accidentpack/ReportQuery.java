@@ -0,0 +1,225 @@
+package accidentpack;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.TreeSet;
+
+/**
+ * Filter for QueryEngine. Every criterion is optional; an unset criterion
+ * matches all reports. Text criteria are compared as ReportDictionary codes so
+ * the scan compares ints. A value that is not in the dictionary yet is looked up
+ * again when the query runs, since reports loaded after the query was built may
+ * add it.
+ */
+public class ReportQuery {
+
+    // Code used when a requested text value is not in the dictionary, matches no report
+    private static final int UNKNOWN_CODE = -2;
+    // Highest severity a mask can hold
+    private static final int MAX_SEVERITY = 31;
+    // Hour used when no hour window is set
+    private static final int NO_HOUR = -1;
+
+    private TreeSet<String> states;
+    private LocalDate from;
+    private LocalDate to;
+    private int fromHour = NO_HOUR;
+    private int toHour = NO_HOUR;
+    private int severityMask;
+    private String weather;
+    private int weatherCode = StringDictionary.NONE;
+    private String county;
+    private int countyCode = StringDictionary.NONE;
+    private String city;
+    private int cityCode = StringDictionary.NONE;
+    private Boolean crossing;
+    private Boolean night;
+
+    public ReportQuery() {
+    }
+
+    /**
+     * @param from first date (inclusive), null for no lower bound
+     * @param to last date (exclusive), null for no upper bound
+     */
+    public ReportQuery(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    // Returns true if only the state and date range are restricted
+    boolean hasOnlyDateCriteria() {
+        return !hasHourWindow() && hasOnlyTimeCriteria();
+    }
+
+    // Returns true if only the state, date range and hour window are restricted
+    boolean hasOnlyTimeCriteria() {
+        return severityMask == 0 && weather == null && crossing == null && night == null
+                && county == null && city == null;
+    }
+
+    // Returns true if only the state, county or city (not both) and date range are restricted
+    boolean hasOnlyPlaceAndDateCriteria() {
+        return !hasHourWindow() && severityMask == 0 && weather == null
+                && crossing == null && night == null && (county == null || city == null);
+    }
+
+    boolean hasHourWindow() {
+        return fromHour != NO_HOUR;
+    }
+
+    /**
+     * Checks the criteria other than state and date range (including the hour window)
+     * @param r
+     * @return boolean
+     */
+    boolean matches(report r) {
+        if (hasHourWindow() && !myAVL.inHourWindow(r.getStartHour(), fromHour, toHour))
+            return false;
+        if (severityMask != 0 && (r.getSeverity() < 0 || r.getSeverity() > MAX_SEVERITY
+                || (severityMask & (1 << r.getSeverity())) == 0))
+            return false;
+        if (weather != null && r.getWeatherCode() != getWeatherCode())
+            return false;
+        if (county != null && r.getCountyCode() != getCountyCode())
+            return false;
+        if (city != null && r.getCityCode() != getCityCode())
+            return false;
+        if (crossing != null && r.getCrossing() != crossing)
+            return false;
+        if (night != null && r.getDayNight() != night)
+            return false;
+        return true;
+    }
+
+    // Returns the requested states, or null for all states
+    public TreeSet<String> getStates() {
+        return states;
+    }
+    public void setStates(Collection<String> states) {
+        this.states = states == null ? null : new TreeSet<>(states);
+    }
+    public LocalDate getFrom() {
+        return from;
+    }
+    public void setFrom(LocalDate from) {
+        this.from = from;
+    }
+    public LocalDate getTo() {
+        return to;
+    }
+    public void setTo(LocalDate to) {
+        this.to = to;
+    }
+    public int getFromHour() {
+        return fromHour;
+    }
+    public int getToHour() {
+        return toHour;
+    }
+    /**
+     * Only accepts reports starting in the hours [fromHour, toHour) of their day,
+     * wrapping around midnight when toHour is before fromHour
+     * @param fromHour first hour (0-23)
+     * @param toHour end hour (exclusive, 0-24)
+     */
+    public void setHours(int fromHour, int toHour) {
+        myAVL.checkHourWindow(fromHour, toHour);
+        this.fromHour = fromHour;
+        this.toHour = toHour;
+    }
+    // Accepts reports of every hour again
+    public void clearHours() {
+        fromHour = NO_HOUR;
+        toHour = NO_HOUR;
+    }
+    // Bit s is set when severity s is accepted, 0 accepts all
+    public int getSeverityMask() {
+        return severityMask;
+    }
+    /**
+     * Only accepts reports with one of the given severities
+     * @param severities at least one, each 0-31
+     */
+    public void setSeverities(int... severities) {
+        if (severities.length == 0)
+            throw new IllegalArgumentException("No severity given, use clearSeverities() to accept all");
+        int mask = 0;
+        for (int severity : severities) {
+            if (severity < 0 || severity > MAX_SEVERITY)
+                throw new IllegalArgumentException("Invalid severity " + severity);
+            mask |= 1 << severity;
+        }
+        severityMask = mask;
+    }
+    // Accepts reports of every severity again
+    public void clearSeverities() {
+        severityMask = 0;
+    }
+    public String getWeather() {
+        return weather;
+    }
+    // Returns the dictionary code of the weather, StringDictionary.NONE when unset
+    public int getWeatherCode() {
+        int code = weatherCode;
+        if (code == UNKNOWN_CODE)
+            weatherCode = code = code(ReportDictionary.WEATHER, weather);
+        return code;
+    }
+    // null accepts every weather condition
+    public void setWeather(String weather) {
+        this.weather = weather;
+        weatherCode = code(ReportDictionary.WEATHER, weather);
+    }
+    public String getCounty() {
+        return county;
+    }
+    // null accepts every county
+    public void setCounty(String county) {
+        this.county = county;
+        countyCode = code(ReportDictionary.COUNTIES, county);
+    }
+    private int getCountyCode() {
+        int code = countyCode;
+        if (code == UNKNOWN_CODE)
+            countyCode = code = code(ReportDictionary.COUNTIES, county);
+        return code;
+    }
+    public String getCity() {
+        return city;
+    }
+    // null accepts every city
+    public void setCity(String city) {
+        this.city = city;
+        cityCode = code(ReportDictionary.CITIES, city);
+    }
+    private int getCityCode() {
+        int code = cityCode;
+        if (code == UNKNOWN_CODE)
+            cityCode = code = code(ReportDictionary.CITIES, city);
+        return code;
+    }
+    // Returns the dictionary code of a value, UNKNOWN_CODE if it is not in the dictionary.
+    // A known code never changes, so threads that resolve it at the same time agree.
+    private static int code(StringDictionary dictionary, String value) {
+        if (value == null) {
+            return StringDictionary.NONE;
+        }
+        int code = dictionary.lookup(value);
+        return code == StringDictionary.NONE ? UNKNOWN_CODE : code;
+    }
+    public Boolean getCrossing() {
+        return crossing;
+    }
+    // null accepts both
+    public void setCrossing(Boolean crossing) {
+        this.crossing = crossing;
+    }
+    public Boolean getNight() {
+        return night;
+    }
+    // null accepts both day and night
+    public void setNight(Boolean night) {
+        this.night = night;
+    }
+}
@@ -0,0 +1,210 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Resident query server: the index is loaded (or mapped from a snapshot) once and
+ * count queries are answered over HTTP from the in-memory myAVL trees, so no
+ * request pays the load cost. Each request runs on its own virtual thread when
+ * the JVM has them (Java 21+) and on a bounded thread pool otherwise. The trees
+ * are only read; /count and /range answers are kept in the ReportHelper query
+ * cache, whose short lock is the only one requests share. A request that fails with
+ * an unexpected exception is answered with status 500.
+ * <p>
+ * Endpoints (GET, plain text answers):
+ * <pre>
+ * /count?state=IL&amp;date=2022-09-08                    reports on and after the date
+ * /range?state=IL&amp;from=2022-01-01&amp;to=2022-02-01        reports in [from, to), dates or date-times (2022-01-01T07:00)
+ * /hours?state=IL&amp;fromHour=7&amp;toHour=9[&amp;from=..&amp;to=..]  reports in a daily hour window
+ * /states                                          one "state size" line per state
+ * /metrics                                         ReportMetrics.dump() and the query cache counts
+ * </pre>
+ */
+public class ReportServer {
+
+    // Requests waiting for a pool thread before the accepting thread runs them itself
+    private static final int QUEUED_REQUESTS = 1024;
+
+    private final SortedMap<String, myAVL> stateAccidentsMap;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param stateAccidentsMap the loaded index, not modified while serving
+     * @param port TCP port to listen on (0 picks a free one)
+     */
+    public ReportServer(SortedMap<String, myAVL> stateAccidentsMap, int port) throws IOException {
+        this.stateAccidentsMap = stateAccidentsMap;
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/count", handler(this::count));
+        server.createContext("/range", handler(this::range));
+        server.createContext("/hours", handler(this::hours));
+        server.createContext("/states", handler(this::states));
+        server.createContext("/metrics", handler(query -> ReportMetrics.get().dump() + ReportHelper.getQueryCache() + "\n"));
+    }
+
+    // Freezes the trees (see myAVL.freeze) and starts answering requests in the background
+    public void start() {
+        ReportHelper.freezeAll(stateAccidentsMap);
+        ReportMetrics.get().watch(stateAccidentsMap);
+        server.start();
+    }
+
+    /**
+     * Stops the server
+     * @param delaySeconds time given to running requests
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    // Returns the port the server listens on
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns an executor that runs every task on a new virtual thread, or, on
+     * JVMs without virtual threads, a pool of two threads per core with a bounded
+     * queue. When the queue is full the accepting thread runs the request itself,
+     * which slows down accepting instead of starting more threads.
+     * @return ExecutorService
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            // Java 21+, looked up so the code still builds and runs on Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = 2 * Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUED_REQUESTS), new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    // Answers one endpoint from the query parameters
+    private interface Query {
+        String answer(Map<String, String> parameters);
+    }
+
+    private HttpHandler handler(Query query) {
+        return exchange -> {
+            int status = 200;
+            String body;
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    status = 405;
+                    body = "Only GET is supported";
+                } else {
+                    body = query.answer(parameters(exchange));
+                }
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                status = 400;
+                body = e.getMessage();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                status = 500;
+                body = "Internal error: " + e;
+            }
+            respond(exchange, status, body);
+        };
+    }
+
+    private String count(Map<String, String> parameters) {
+        LocalDate date = LocalDate.parse(required(parameters, "date"));
+        return String.valueOf(ReportHelper.countReportsAVL(required(parameters, "state"), date, stateAccidentsMap));
+    }
+
+    private String range(Map<String, String> parameters) {
+        String state = required(parameters, "state");
+        String from = required(parameters, "from");
+        String to = required(parameters, "to");
+        long start = System.nanoTime();
+        int count = ReportHelper.getQueryCache().countReportsBetween(state, second(from), second(to), stateAccidentsMap);
+        ReportMetrics.get().recordQuery(System.nanoTime() - start);
+        return String.valueOf(count);
+    }
+
+    private String hours(Map<String, String> parameters) {
+        String from = parameters.get("from");
+        String to = parameters.get("to");
+        int count = ReportHelper.countReportsInHoursAVL(required(parameters, "state"),
+                from == null ? null : LocalDate.parse(from), to == null ? null : LocalDate.parse(to),
+                Integer.parseInt(required(parameters, "fromHour")), Integer.parseInt(required(parameters, "toHour")),
+                stateAccidentsMap);
+        return String.valueOf(count);
+    }
+
+    private String states(Map<String, String> parameters) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, myAVL> entry : stateAccidentsMap.entrySet()) {
+            text.append(entry.getKey()).append(' ').append(entry.getValue().size()).append('\n');
+        }
+        return text.toString();
+    }
+
+    // Parses a date (midnight) or a date-time into epoch seconds
+    private static long second(String value) {
+        if (value.indexOf('T') >= 0) {
+            return report.toSecond(LocalDateTime.parse(value));
+        }
+        return report.toSecond(LocalDate.parse(value));
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    // Decodes the query string of a request
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body.endsWith("\n") ? body : body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
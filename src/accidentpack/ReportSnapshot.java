@@ -0,0 +1,288 @@
+package accidentpack;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Compact binary snapshot of a loaded state index (StateTable of state to myAVL).
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * int magic, int version
+ * int dictionary size, then per entry: int length, UTF-8 bytes
+ * int state count, then per state:
+ *     int state (dictionary code), int rows
+ *     long[rows] start epoch second, long[rows] end epoch second
+ *     (version 1 stored int[rows] epoch days instead, still readable)
+ *     byte[rows] severity
+ *     short[rows] temperature, short[rows] humidity, short[rows] visibility
+ *     byte[rows] flags (bit 0 crossing, bit 1 night)
+ *     int[rows] street, int[rows] city, int[rows] county, int[rows] weather (dictionary codes)
+ *     int id bytes, then per row: short length, UTF-8 bytes
+ * </pre>
+ * Rows are written in tree order (sorted by start time), so loading a snapshot
+ * only has to rebuild each balanced tree, no csv parsing or sorting is needed.
+ * A report whose values do not fit their column is rejected before the file is
+ * created, instead of being stored truncated.
+ */
+public class ReportSnapshot {
+
+    private static final int MAGIC = 0x41565353; // "AVSS"
+    private static final int VERSION = 2;
+    // Version 1 stored epoch days, Integer.MIN_VALUE for a null date
+    private static final int DAYS_VERSION = 1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int CROSSING = 1;
+    private static final int NIGHT = 2;
+
+    /**
+     * Writes the state index to a snapshot file
+     * @param stateAccidentsMap the loaded index
+     * @param filename the snapshot file to create
+     * @throws IOException if the file cannot be written or a value does not fit its column
+     */
+    public static void write(SortedMap<String, myAVL> stateAccidentsMap, String filename) throws IOException {
+        StringDictionary dictionary = new StringDictionary();
+        StateTable<List<report>> stateReports = new StateTable<>();
+        for (Map.Entry<String, myAVL> entry : stateAccidentsMap.entrySet()) {
+            myAVL tree = entry.getValue();
+            List<report> reports = new ArrayList<>(tree.size());
+            tree.collectInOrder(tree.root, reports);
+            stateReports.put(entry.getKey(), reports);
+
+            dictionary.encode(entry.getKey());
+            for (report r : reports) {
+                checkRow(r);
+                dictionary.encode(r.getStreet());
+                dictionary.encode(r.getCity());
+                dictionary.encode(r.getCounty());
+                dictionary.encode(r.getWeather());
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(dictionary.size());
+            for (int code = 0; code < dictionary.size(); code++) {
+                byte[] bytes = dictionary.decode(code).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(stateReports.size());
+            for (Map.Entry<String, List<report>> entry : stateReports.entrySet()) {
+                List<report> reports = entry.getValue();
+                out.writeInt(dictionary.lookup(entry.getKey()));
+                out.writeInt(reports.size());
+
+                for (report r : reports)
+                    out.writeLong(r.getStartSecond());
+                for (report r : reports)
+                    out.writeLong(r.getEndSecond());
+                for (report r : reports)
+                    out.writeByte(r.getSeverity());
+                for (report r : reports)
+                    out.writeShort(r.getTemp());
+                for (report r : reports)
+                    out.writeShort(r.getHumidity());
+                for (report r : reports)
+                    out.writeShort(r.getVisibility());
+                for (report r : reports)
+                    out.writeByte((r.getCrossing() ? CROSSING : 0) | (r.getDayNight() ? NIGHT : 0));
+                for (report r : reports)
+                    out.writeInt(dictionary.lookup(r.getStreet()));
+                for (report r : reports)
+                    out.writeInt(dictionary.lookup(r.getCity()));
+                for (report r : reports)
+                    out.writeInt(dictionary.lookup(r.getCounty()));
+                for (report r : reports)
+                    out.writeInt(dictionary.lookup(r.getWeather()));
+
+                List<byte[]> ids = new ArrayList<>(reports.size());
+                int idBytes = 0;
+                for (report r : reports) {
+                    byte[] id = r.getID().getBytes(StandardCharsets.UTF_8);
+                    ids.add(id);
+                    idBytes += 2 + id.length;
+                }
+                out.writeInt(idBytes);
+                for (byte[] id : ids) {
+                    out.writeShort(id.length);
+                    out.write(id);
+                }
+            }
+        }
+    }
+
+    // Rejects a report whose ID, severity, temperature, humidity or visibility does not fit its column
+    private static void checkRow(report r) throws IOException {
+        if (r.getID().getBytes(StandardCharsets.UTF_8).length > 0xFFFF) {
+            throw new IOException("ID longer than 65535 bytes: " + r.getID());
+        }
+        checkRange(r, "severity", r.getSeverity(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+        checkRange(r, "temperature", r.getTemp(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "humidity", r.getHumidity(), Short.MIN_VALUE, Short.MAX_VALUE);
+        checkRange(r, "visibility", r.getVisibility(), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    private static void checkRange(report r, String column, int value, int min, int max) throws IOException {
+        if (value < min || value > max) {
+            throw new IOException("Report " + r.getID() + ": " + column + " " + value
+                    + " does not fit the snapshot (" + min + " to " + max + ")");
+        }
+    }
+
+    /**
+     * Memory-maps a snapshot file and rebuilds the state index from it
+     * @param filename the snapshot file
+     * @return a map of states to balanced AVL trees of accidents
+     * @throws IOException if the file cannot be read, or is truncated or corrupt
+     */
+    public static SortedMap<String, myAVL> read(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(filename, buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(filename + " is truncated", e);
+        }
+    }
+
+    // Rebuilds the state index from the mapped file; a short read throws BufferUnderflowException
+    private static SortedMap<String, myAVL> read(String filename, ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(filename + " is not a report snapshot");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION && version != DAYS_VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+
+        String[] dictionary = new String[count(buffer, filename)];
+        for (int code = 0; code < dictionary.length; code++) {
+            byte[] bytes = new byte[count(buffer, filename)];
+            buffer.get(bytes);
+            dictionary[code] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        SortedMap<String, myAVL> stateAccidentsMap = new StateTable<>();
+        int states = count(buffer, filename);
+        for (int s = 0; s < states; s++) {
+            String state = word(dictionary, buffer.getInt(), filename);
+            int rows = count(buffer, filename);
+
+            long[] start = version == DAYS_VERSION ? days(buffer, rows) : longs(buffer, rows);
+            long[] end = version == DAYS_VERSION ? days(buffer, rows) : longs(buffer, rows);
+            byte[] severity = new byte[rows];
+            buffer.get(severity);
+            short[] temp = shorts(buffer, rows);
+            short[] humidity = shorts(buffer, rows);
+            short[] visibility = shorts(buffer, rows);
+            byte[] flags = new byte[rows];
+            buffer.get(flags);
+            int[] street = ints(buffer, rows);
+            int[] city = ints(buffer, rows);
+            int[] county = ints(buffer, rows);
+            int[] weather = ints(buffer, rows);
+            buffer.getInt(); // id bytes, only needed to skip the column
+
+            report[] reports = new report[rows];
+            byte[] id = new byte[64];
+            for (int i = 0; i < rows; i++) {
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > id.length) {
+                    id = new byte[length];
+                }
+                buffer.get(id, 0, length);
+                reports[i] = new report(new String(id, 0, length, StandardCharsets.UTF_8), severity[i],
+                        start[i], end[i], word(dictionary, street[i], filename),
+                        word(dictionary, city[i], filename), word(dictionary, county[i], filename), state,
+                        temp[i], humidity[i], visibility[i], word(dictionary, weather[i], filename),
+                        (flags[i] & CROSSING) != 0, (flags[i] & NIGHT) != 0);
+            }
+
+            // rows are already in tree order
+            myAVL tree = new myAVL();
+            tree.loadSorted(reports);
+            stateAccidentsMap.put(state, tree);
+        }
+        return stateAccidentsMap;
+    }
+
+    // Reads a size or length, which can be no larger than the rest of the file
+    private static int count(ByteBuffer buffer, String filename) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException(filename + " is truncated or corrupt: count " + count + " at byte " + (buffer.position() - 4));
+        }
+        return count;
+    }
+
+    // Returns a dictionary entry, rejecting codes the dictionary does not have
+    private static String word(String[] dictionary, int code, String filename) throws IOException {
+        if (code < 0 || code >= dictionary.length) {
+            throw new IOException(filename + " is corrupt: dictionary code " + code + " of " + dictionary.length);
+        }
+        return dictionary[code];
+    }
+
+    /**
+     * Checks whether a file starts with the snapshot magic number
+     * @param filename
+     * @return boolean
+     */
+    public static boolean isSnapshot(String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Reads a version 1 column of epoch days as the epoch seconds of their midnights
+    private static long[] days(ByteBuffer buffer, int count) {
+        int[] days = ints(buffer, count);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = days[i] == NO_DATE ? report.NO_TIME : (long) days[i] * report.SECONDS_PER_DAY;
+        }
+        return values;
+    }
+
+    private static long[] longs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * 8);
+        return values;
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    private static short[] shorts(ByteBuffer buffer, int count) {
+        short[] values = new short[count];
+        buffer.asShortBuffer().get(values);
+        buffer.position(buffer.position() + count * 2);
+        return values;
+    }
+}
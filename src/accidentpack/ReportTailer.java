@@ -0,0 +1,218 @@
+package accidentpack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Follows an append-only accident csv and adds new lines to the existing
+ * per-state AVL trees. The tailer remembers the byte offset just past the last
+ * complete line it has read; every poll() parses only the complete lines
+ * appended since then (a partially written last line waits for the next poll)
+ * and inserts them batch by batch. The whole range is parsed before anything is
+ * inserted, so a poll that fails while reading adds nothing and the next poll
+ * reads the same lines again.
+ * <p>
+ * Trees are modified while holding the lock of the map, so threads that query the
+ * same map concurrently must synchronize on it as well, or query a
+ * ConcurrentReportIndex registered with addIndex instead: every batch is
+ * published to it as one version, which readers see without taking any lock.
+ */
+public class ReportTailer {
+
+    // Number of lines parsed before they are added to the trees
+    private static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private final String filename;
+    private final SortedMap<String, myAVL> stateAccidentsMap;
+    private final int batchSize;
+    // Malformed lines are skipped and collected here
+    private final ParseErrors errors = new ParseErrors();
+    private final MappedReportParser parser = new MappedReportParser(errors);
+    private long offset;
+    // Secondary indexes that receive every added report
+    private final List<LocationIndex> indexes = new ArrayList<>();
+    // Lock-free indexes that receive every batch as one version
+    private final List<ConcurrentReportIndex> concurrentIndexes = new ArrayList<>();
+
+    /**
+     * Tails a file from the beginning: the first poll() loads the whole file
+     * @param filename the path to the csv file
+     */
+    public ReportTailer(String filename) {
+        this(filename, new StateTable<>(), 0, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Continues tailing a file whose first offset bytes are already in stateAccidentsMap
+     * @param filename the path to the csv file
+     * @param stateAccidentsMap the trees to add new reports to
+     * @param offset position of the first unread line (0 to start with the header)
+     * @param batchSize number of lines added to the trees at once
+     */
+    public ReportTailer(String filename, SortedMap<String, myAVL> stateAccidentsMap, long offset, int batchSize) {
+        this.filename = filename;
+        this.stateAccidentsMap = stateAccidentsMap;
+        this.offset = offset;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Keeps a secondary index up to date with every report added from now on
+     * @param index
+     */
+    public synchronized void addIndex(LocationIndex index) {
+        indexes.add(index);
+    }
+
+    /**
+     * Publishes every batch added from now on to a concurrent index. Pass an index
+     * built from the trees (or an empty one before the first poll) so it holds
+     * the same reports.
+     * @param index
+     */
+    public synchronized void addIndex(ConcurrentReportIndex index) {
+        concurrentIndexes.add(index);
+    }
+
+    /**
+     * Reads the complete lines appended since the last poll and adds them to the trees
+     * @return number of reports added
+     */
+    public synchronized int poll() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                throw new IOException(filename + " shrank from " + offset + " to " + size + " bytes");
+            }
+            if (offset == 0) {
+                offset = MappedReportParser.nextLineStart(channel, 0); // skip header line
+                if (offset == size && size > 0 && lastByte(channel, size) != '\n') {
+                    offset = 0; // header itself is not complete yet
+                    return 0;
+                }
+            }
+            long end = lastLineEnd(channel, offset, size);
+            if (end <= offset) {
+                return 0;
+            }
+
+            List<report> parsed = new ArrayList<>();
+            parser.parse(channel, offset, end, parsed::add);
+
+            for (int from = 0; from < parsed.size(); from += batchSize) {
+                addBatch(parsed.subList(from, Math.min(parsed.size(), from + batchSize)));
+            }
+            offset = end;
+            return parsed.size();
+        }
+    }
+
+    /**
+     * Polls the file every interval until the calling thread is interrupted
+     * @param intervalMillis time between polls
+     */
+    public void follow(long intervalMillis) throws IOException {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                poll();
+                Thread.sleep(intervalMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Adds one batch, grouped by state, to the trees
+    private void addBatch(List<report> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        TreeMap<String, List<report>> byState = new TreeMap<>();
+        for (report r : batch) {
+            byState.computeIfAbsent(r.getState(), k -> new ArrayList<>()).add(r);
+        }
+        synchronized (stateAccidentsMap) {
+            for (Map.Entry<String, List<report>> entry : byState.entrySet()) {
+                myAVL tree = stateAccidentsMap.get(entry.getKey());
+                if (tree == null) {
+                    tree = new myAVL();
+                    stateAccidentsMap.put(entry.getKey(), tree);
+                }
+                List<report> reports = entry.getValue();
+                // large batches are merged and rebuilt, small ones inserted one by one
+                if (reports.size() > tree.size() / 4) {
+                    tree.addAll(reports);
+                } else {
+                    for (report r : reports) {
+                        tree.insert(r);
+                    }
+                }
+            }
+            for (LocationIndex index : indexes) {
+                index.addAll(batch);
+            }
+        }
+        // published outside the map lock, the concurrent index has its own writer lock
+        for (ConcurrentReportIndex index : concurrentIndexes) {
+            index.appendAll(batch);
+        }
+    }
+
+    // Returns the position just past the last '\n' in [from, size), or from if there is none
+    private static long lastLineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = size;
+        while (position > from) {
+            int length = (int) Math.min(buffer.capacity(), position - from);
+            buffer.clear().limit(length);
+            readFully(channel, buffer, position - length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return position - length + i + 1;
+                }
+            }
+            position -= length;
+        }
+        return from;
+    }
+
+    private static byte lastByte(FileChannel channel, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        readFully(channel, buffer, size - 1);
+        return buffer.get(0);
+    }
+
+    // Reads until the buffer is full, since one read may return fewer bytes
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at byte " + position);
+            }
+            position += read;
+        }
+    }
+
+    // Returns the trees reports are added to
+    public SortedMap<String, myAVL> getStateAccidentsMap() {
+        return stateAccidentsMap;
+    }
+
+    // Returns the malformed lines skipped so far
+    public ParseErrors getErrors() {
+        return errors;
+    }
+
+    // Returns the position just past the last line read
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,459 @@
+package accidentpack;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Map from state code to a per-state structure that replaces TreeMap for the
+ * outer state map. A two-capital-letter code is turned into a slot of a plain
+ * 26 * 26 array by character arithmetic ((first - 'A') * 26 + second - 'A'),
+ * so get, put and containsKey do no String comparisons or hashing. Slot order
+ * is alphabetical order, so iteration is sorted like a TreeMap's. Any other key
+ * goes to a small TreeMap and is merged into the iteration order.
+ * <p>
+ * headMap, tailMap and subMap return views backed by the table, like a TreeMap's.
+ * Not thread-safe.
+ */
+public class StateTable<V> extends AbstractMap<String, V> implements SortedMap<String, V> {
+
+    // Number of two-letter codes
+    static final int SLOTS = 26 * 26;
+
+    // Key of each used slot, null for an empty slot
+    private final String[] keys = new String[SLOTS];
+    private final Object[] values = new Object[SLOTS];
+    private int slotCount;
+    // Keys that are not two capital letters
+    private final TreeMap<String, V> other = new TreeMap<>();
+    private int modCount;
+
+    public StateTable() {
+    }
+
+    /**
+     * Creates a table holding the entries of a map
+     * @param map
+     */
+    public StateTable(Map<String, ? extends V> map) {
+        for (Map.Entry<String, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the slot of a two-capital-letter state code
+     * @param state
+     * @return slot between 0 and SLOTS - 1, or -1 for any other key
+     */
+    public static int slot(String state) {
+        if (state.length() != 2) {
+            return -1;
+        }
+        int first = state.charAt(0) - 'A';
+        int second = state.charAt(1) - 'A';
+        if (first < 0 || first >= 26 || second < 0 || second >= 26) {
+            return -1;
+        }
+        return first * 26 + second;
+    }
+
+    // Slot of a lookup key, -1 if it is not a two-letter String
+    private static int slotOf(Object key) {
+        return key instanceof String ? slot((String) key) : -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return (V) values[slot];
+        }
+        return key instanceof String ? other.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            return keys[slot] != null;
+        }
+        return key instanceof String && other.containsKey(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(String key, V value) {
+        int slot = slot(key);
+        if (slot < 0) {
+            if (!other.containsKey(key)) {
+                modCount++;
+            }
+            return other.put(key, value);
+        }
+        V old = (V) values[slot];
+        if (keys[slot] == null) {
+            keys[slot] = key;
+            slotCount++;
+            modCount++;
+        }
+        values[slot] = value;
+        return old;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            if (!(key instanceof String) || !other.containsKey(key)) {
+                return null;
+            }
+            modCount++;
+            return other.remove(key);
+        }
+        return removeSlot(slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V removeSlot(int slot) {
+        V old = (V) values[slot];
+        if (keys[slot] != null) {
+            keys[slot] = null;
+            values[slot] = null;
+            slotCount--;
+            modCount++;
+        }
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + other.size();
+    }
+
+    @Override
+    public void clear() {
+        for (int slot = 0; slot < SLOTS; slot++) {
+            keys[slot] = null;
+            values[slot] = null;
+        }
+        slotCount = 0;
+        other.clear();
+        modCount++;
+    }
+
+    // Entries in key order
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new AbstractSet<Map.Entry<String, V>>() {
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return StateTable.this.size();
+            }
+        };
+    }
+
+    // Entry of a slot, writes through to the table
+    private final class SlotEntry implements Map.Entry<String, V> {
+        private final int slot;
+
+        SlotEntry(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public String getKey() {
+            return keys[slot];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V getValue() {
+            return (V) values[slot];
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = getValue();
+            values[slot] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ Objects.hashCode(getValue());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    // Merges the used slots and the other keys in key order
+    private final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+        private int nextSlot = nextUsed(0);
+        private Iterator<Map.Entry<String, V>> others = other.entrySet().iterator();
+        private Map.Entry<String, V> nextOther = others.hasNext() ? others.next() : null;
+        // What next() returned last: a slot, or -1 for an other entry, or -2 for nothing
+        private int lastSlot = -2;
+        private String lastOtherKey;
+        private int expectedModCount = modCount;
+
+        @Override
+        public boolean hasNext() {
+            return nextSlot < SLOTS || nextOther != null;
+        }
+
+        // Key next() returns, without moving past it (hasNext() must be true)
+        String peekKey() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (nextSlot < SLOTS && (nextOther == null || keys[nextSlot].compareTo(nextOther.getKey()) < 0))
+                return keys[nextSlot];
+            return nextOther.getKey();
+        }
+
+        @Override
+        public Map.Entry<String, V> next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (nextSlot < SLOTS && (nextOther == null || keys[nextSlot].compareTo(nextOther.getKey()) < 0)) {
+                lastSlot = nextSlot;
+                nextSlot = nextUsed(nextSlot + 1);
+                return new SlotEntry(lastSlot);
+            }
+            Map.Entry<String, V> entry = nextOther;
+            lastSlot = -1;
+            lastOtherKey = entry.getKey();
+            nextOther = others.hasNext() ? others.next() : null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastSlot == -2)
+                throw new IllegalStateException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (lastSlot >= 0) {
+                removeSlot(lastSlot);
+            } else {
+                // the other iterator has already moved past the key, so restart it after the key
+                other.remove(lastOtherKey);
+                modCount++;
+                others = other.tailMap(lastOtherKey, false).entrySet().iterator();
+                nextOther = others.hasNext() ? others.next() : null;
+            }
+            expectedModCount = modCount;
+            lastSlot = -2;
+        }
+
+        private int nextUsed(int from) {
+            while (from < SLOTS && keys[from] == null)
+                from++;
+            return from;
+        }
+    }
+
+    @Override
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public String firstKey() {
+        Iterator<Map.Entry<String, V>> entries = entrySet().iterator();
+        if (!entries.hasNext())
+            throw new NoSuchElementException();
+        return entries.next().getKey();
+    }
+
+    @Override
+    public String lastKey() {
+        String last = null;
+        for (int slot = SLOTS - 1; slot >= 0 && last == null; slot--) {
+            last = keys[slot];
+        }
+        if (!other.isEmpty() && (last == null || other.lastKey().compareTo(last) > 0)) {
+            last = other.lastKey();
+        }
+        if (last == null)
+            throw new NoSuchElementException();
+        return last;
+    }
+
+    @Override
+    public SortedMap<String, V> subMap(String fromKey, String toKey) {
+        return new Range(Objects.requireNonNull(fromKey), Objects.requireNonNull(toKey));
+    }
+
+    @Override
+    public SortedMap<String, V> headMap(String toKey) {
+        return new Range(null, Objects.requireNonNull(toKey));
+    }
+
+    @Override
+    public SortedMap<String, V> tailMap(String fromKey) {
+        return new Range(Objects.requireNonNull(fromKey), null);
+    }
+
+    // View of the keys in [from, to), null for an open end; reads and writes go to the table
+    private final class Range extends AbstractMap<String, V> implements SortedMap<String, V> {
+        private final String from;
+        private final String to;
+
+        Range(String from, String to) {
+            if (from != null && to != null && from.compareTo(to) > 0)
+                throw new IllegalArgumentException("fromKey " + from + " > toKey " + to);
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(Object key) {
+            if (!(key instanceof String))
+                return false;
+            String k = (String) key;
+            return (from == null || k.compareTo(from) >= 0) && (to == null || k.compareTo(to) < 0);
+        }
+
+        // Checks that a bound of a nested view lies within this view, the end included
+        private String bound(String key) {
+            Objects.requireNonNull(key);
+            if ((from != null && key.compareTo(from) < 0) || (to != null && key.compareTo(to) > 0))
+                throw new IllegalArgumentException("Key out of range: " + key);
+            return key;
+        }
+
+        @Override
+        public V get(Object key) {
+            return inRange(key) ? StateTable.this.get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && StateTable.this.containsKey(key);
+        }
+
+        @Override
+        public V put(String key, V value) {
+            if (!inRange(key))
+                throw new IllegalArgumentException("Key out of range: " + key);
+            return StateTable.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return inRange(key) ? StateTable.this.remove(key) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet() {
+            return new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator() {
+                    return new RangeIterator();
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (Iterator<Map.Entry<String, V>> entries = iterator(); entries.hasNext(); entries.next())
+                        size++;
+                    return size;
+                }
+            };
+        }
+
+        // Entries of the table from the first key at or after from, up to to
+        private final class RangeIterator implements Iterator<Map.Entry<String, V>> {
+            private final EntryIterator entries = new EntryIterator();
+
+            RangeIterator() {
+                if (from != null) {
+                    while (entries.hasNext() && entries.peekKey().compareTo(from) < 0)
+                        entries.next();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext() && (to == null || entries.peekKey().compareTo(to) < 0);
+            }
+
+            @Override
+            public Map.Entry<String, V> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return entries.next();
+            }
+
+            @Override
+            public void remove() {
+                entries.remove();
+            }
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public String firstKey() {
+            Iterator<Map.Entry<String, V>> entries = entrySet().iterator();
+            if (!entries.hasNext())
+                throw new NoSuchElementException();
+            return entries.next().getKey();
+        }
+
+        @Override
+        public String lastKey() {
+            String last = null;
+            for (Iterator<Map.Entry<String, V>> entries = entrySet().iterator(); entries.hasNext();)
+                last = entries.next().getKey();
+            if (last == null)
+                throw new NoSuchElementException();
+            return last;
+        }
+
+        @Override
+        public SortedMap<String, V> subMap(String fromKey, String toKey) {
+            return new Range(bound(fromKey), bound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, V> headMap(String toKey) {
+            return new Range(from, bound(toKey));
+        }
+
+        @Override
+        public SortedMap<String, V> tailMap(String fromKey) {
+            return new Range(bound(fromKey), to);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package accidentpack;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary encoding for repeated text columns (street, city, county, weather).
+ * Every distinct value gets a small int code, assigned in order of first use,
+ * and one canonical String instance. Lookups of known values take no lock, so
+ * parser threads can encode concurrently; only new values are added under a lock.
+ * null is never added and has the code NONE.
+ */
+public class StringDictionary {
+
+    // Code of null and of values that are not in the dictionary
+    public static final int NONE = -1;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    // Canonical values indexed by code, a new array is published when it grows
+    private volatile String[] values = new String[64];
+    private int size;
+
+    /**
+     * Returns the code of value, adding it to the dictionary if it is new
+     * @param value
+     * @return int code
+     */
+    public int encode(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(value);
+            if (code == null) {
+                code = size;
+                String[] array = values;
+                if (code == array.length) {
+                    array = Arrays.copyOf(array, array.length * 2);
+                }
+                array[code] = value;
+                values = array;
+                size++;
+                // published last, so a reader that sees the code can decode it
+                codes.put(value, code);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Returns the canonical instance of value, adding it if it is new
+     * @param value
+     * @return String equal to value
+     */
+    public String intern(String value) {
+        int code = encode(value);
+        return code == NONE ? null : values[code];
+    }
+
+    /**
+     * Returns the code of value, or NONE if the value is not in the dictionary
+     * @param value
+     * @return int code
+     */
+    public int lookup(String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code == null ? NONE : code;
+    }
+
+    /**
+     * Returns the value of a code
+     * @param code
+     * @return String, null for NONE
+     */
+    public String decode(int code) {
+        return code == NONE ? null : values[code];
+    }
+
+    // Returns the number of distinct values
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -1,6 +1,17 @@
 package accidentpack;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author surajsubramanian & Devin C & Alex B
@@ -9,11 +20,26 @@ import java.time.LocalDate;
  * Original code pulled from https://github.com/surajsubramanian/AVL-Trees/blob/master/AVLT.java
  * and modified by Devin & Alex
  */
-public class myAVL {
+public class myAVL implements Iterable<report> {
+    private static final int SECONDS_PER_HOUR = 60 * 60;
+
     // NODE structure
     class Node {
         report data;
         int height;
+        // Number of nodes in the subtree rooted here (including this node)
+        int size;
+        // Aggregates over the subtree rooted here (including this node)
+        int severitySum;
+        int maxSeverity;
+        // Number of reports per severity level (see ReportAggregate.severityLevel)
+        int severity0;
+        int severity1;
+        int severity2;
+        int severity3;
+        int severity4;
+        int crossingCount;
+        int nightCount;
         Node left;
         Node right;
 
@@ -21,18 +47,50 @@ public class myAVL {
         public Node(report data) {
             this.data = data;
             this.height = 1;
+            this.size = 1;
+            this.severitySum = data.getSeverity();
+            this.maxSeverity = data.getSeverity();
+            addSeverity(data.getSeverity(), 1);
+            this.crossingCount = data.getCrossing() ? 1 : 0;
+            this.nightCount = data.getDayNight() ? 1 : 0;
             this.left = null;
             this.right = null;
         }
+
+        // Adds n reports of a severity to the per-level counts
+        void addSeverity(int severity, int n) {
+            switch (ReportAggregate.severityLevel(severity)) {
+                case 0: severity0 += n; break;
+                case 1: severity1 += n; break;
+                case 2: severity2 += n; break;
+                case 3: severity3 += n; break;
+                default: severity4 += n; break;
+            }
+        }
     }
     
     Node root;
     
     // Counter to keep track of imbalances
     private int imbalanceCount;
+    // Number of structural changes, checked by iterators
+    int modCount;
+    // Source of versions, shared by all trees so two trees never have the same one
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    // Renewed after every change; volatile so other threads (QueryCache) see it
+    private volatile long version = VERSIONS.incrementAndGet();
+    // Search path of the running insert or delete, and whether each node is a left child
+    private Node[] path = new Node[64];
+    private boolean[] leftChild = new boolean[64];
     // Counters to keep track of rotations
     private int leftRotationCount;
     private int rightRotationCount;
+    // Number of times imbalanceCount triggered a rebalance
+    private int rebalanceCount;
+    // Array copy of the start times answering counts while the tree is frozen, null otherwise
+    private EytzingerIndex frozen;
+    // Reports per day, answering the date-granular counts
+    private DailyHistogram days = new DailyHistogram();
     
     // Constructor
     public myAVL() {
@@ -58,11 +116,49 @@ public class myAVL {
             return (Height(key.right) - Height(key.left));
     }
 
-    // Updates the height of the node
+    // Returns the subtree size of the node
+    int Size(Node key) {
+        if (key == null)
+            return 0;
+        else
+            return key.size;
+    }
+
+    // Updates the height, subtree size and subtree aggregates of the node
     void updateHeight(Node key) {
         int l = Height(key.left);
         int r = Height(key.right);
         key.height = Math.max(l, r) + 1;
+        key.size = Size(key.left) + Size(key.right) + 1;
+        updateAggregates(key);
+    }
+
+    // Recomputes the subtree aggregates of the node from its children and its own report
+    void updateAggregates(Node key) {
+        report data = key.data;
+        key.severity0 = key.severity1 = key.severity2 = key.severity3 = key.severity4 = 0;
+        key.addSeverity(data.getSeverity(), 1);
+        key.severitySum = data.getSeverity();
+        key.maxSeverity = data.getSeverity();
+        key.crossingCount = data.getCrossing() ? 1 : 0;
+        key.nightCount = data.getDayNight() ? 1 : 0;
+        addAggregates(key, key.left);
+        addAggregates(key, key.right);
+    }
+
+    // Adds the subtree aggregates of child to key
+    private void addAggregates(Node key, Node child) {
+        if (child == null)
+            return;
+        key.severitySum += child.severitySum;
+        key.crossingCount += child.crossingCount;
+        key.nightCount += child.nightCount;
+        key.maxSeverity = Math.max(key.maxSeverity, child.maxSeverity);
+        key.severity0 += child.severity0;
+        key.severity1 += child.severity1;
+        key.severity2 += child.severity2;
+        key.severity3 += child.severity3;
+        key.severity4 += child.severity4;
     }
 
     // Performs left rotation
@@ -115,84 +211,159 @@ public class myAVL {
     }
 
     // Performs BST insertion and balances the tree
+    // (iterative: the search path is kept in an explicit stack instead of the call stack)
     Node BSTInsert(Node root, report key) {
+        modCount++;
+        changed();
+        frozen = null;
+        days.add(key.getStartSecond());
+        Node node = new Node(key);
         if (root == null)
-            return new Node(key);
-        else if (key.compareTo(root.data) < 0)
-            root.left = BSTInsert(root.left, key);
-        else
-            root.right = BSTInsert(root.right, key);
+            return node;
 
-        // Update height of current node
-        updateHeight(root);
+        int depth = 0;
+        Node current = root;
+        boolean left = false;
+        while (current != null) {
+            push(depth++, current, left);
+            left = key.compareTo(current.data) < 0;
+            current = left ? current.left : current.right;
+        }
+        if (left)
+            path[depth - 1].left = node;
+        else
+            path[depth - 1].right = node;
+        return rebalancePath(depth);
+    }
 
-        // Check if imbalance exists
-        int balance = Balance(root);
-        if (balance > 1 || balance < -1) {
-            imbalanceCount++; // Increase imbalance count if imbalance exists
+    // Stores a node of the current search path and whether it is a left child
+    private void push(int depth, Node node, boolean left) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+            leftChild = Arrays.copyOf(leftChild, depth * 2);
         }
+        path[depth] = node;
+        leftChild[depth] = left;
+    }
+
+    /**
+     * Walks the search path from path[depth - 1] up to the root: updates every
+     * node, counts imbalances and rebalances once more than one is found, and
+     * links each (possibly rotated) subtree back into its parent
+     * @param depth number of nodes on the path
+     * @return the new root
+     */
+    private Node rebalancePath(int depth) {
+        Node node = null;
+        for (int i = depth - 1; i >= 0; i--) {
+            node = path[i];
+            path[i] = null;
+
+            // Update height of current node
+            updateHeight(node);
 
-        // Balance the tree if imbalance count exceeds 1
-        if (imbalanceCount > 1) {
-            root = balanceTree(root);
-            imbalanceCount = 0; // Reset imbalance count after balancing
+            // Check if imbalance exists
+            int balance = Balance(node);
+            if (balance > 1 || balance < -1) {
+                imbalanceCount++; // Increase imbalance count if imbalance exists
+            }
+
+            // Balance the tree if imbalance count exceeds 1
+            if (imbalanceCount > 1) {
+                node = balanceTree(node);
+                rebalanceCount++;
+                imbalanceCount = 0; // Reset imbalance count after balancing
+            }
+
+            if (i > 0) {
+                if (leftChild[i])
+                    path[i - 1].left = node;
+                else
+                    path[i - 1].right = node;
+            }
         }
-        return root;
+        return node;
     }
 
     // Finds the successor of a node
     Node Successor(Node root) {
-        if (root.left != null)
-            return Successor(root.left);
-        else
-            return root;
+        while (root.left != null)
+            root = root.left;
+        return root;
     }
 
-    // Performs BST deletion and balances the tree
+    // Performs BST deletion and balances the tree (iterative, see BSTInsert).
+    // A node with two children takes the data of its in-order successor, and
+    // exactly that successor node is unlinked.
     Node Remove(Node root, report key) {
-        if (root == null)
+        int depth = 0;
+        Node current = root;
+        boolean left = false;
+        while (current != null) {
+            int compare = key.compareTo(current.data);
+            if (compare == 0)
+                break;
+            push(depth++, current, left);
+            left = compare < 0;
+            current = left ? current.left : current.right;
+        }
+        if (current == null) {
+            // not found, nothing changes
+            for (int i = 0; i < depth; i++)
+                path[i] = null;
             return root;
-        else if (key.compareTo(root.data) < 0)
-            root.left = Remove(root.left, key);
-        else if (key.compareTo(root.data) > 0)
-            root.right = Remove(root.right, key);
-        else {
-            if (root.right == null)
-                root = root.left;
-            else if (root.left == null)
-                root = root.right;
-            else {
-                Node temp = Successor(root.right);
-                root.data = temp.data;
-                root.right = Remove(root.right, root.data);
-            }
         }
+        modCount++;
+        changed();
+        frozen = null;
+        // the data leaving the tree has the start time of key
+        days.remove(key.getStartSecond());
 
-        // Update height of current node
-        updateHeight(root);
-
-        // Check if imbalance exists
-        int balance = Balance(root);
-        if (balance > 1 || balance < -1) {
-            imbalanceCount++; // Increase imbalance count if imbalance exists
+        Node removed = current;
+        Node replacement;
+        if (current.right == null)
+            replacement = current.left;
+        else if (current.left == null)
+            replacement = current.right;
+        else {
+            // unlink the successor instead and move its data up
+            push(depth++, current, left);
+            Node successor = current.right;
+            left = false;
+            while (successor.left != null) {
+                push(depth++, successor, left);
+                successor = successor.left;
+                left = true;
+            }
+            current.data = successor.data;
+            removed = successor;
+            replacement = successor.right;
         }
 
-        // Balance the tree if imbalance count exceeds 1 and root is not null
-        if (imbalanceCount > 1 && root != null) {
-            root = balanceTree(root);
-            imbalanceCount = 0; // Reset imbalance count after balancing
+        if (replacement != null) {
+            // the node taking the removed node's place is updated as well
+            push(depth++, replacement, left);
+        } else if (depth == 0) {
+            return null;
+        } else if (left) {
+            path[depth - 1].left = null;
+        } else {
+            path[depth - 1].right = null;
         }
-        return root;
+        removed.left = null;
+        removed.right = null;
+        return rebalancePath(depth);
     }
 
     // Searches for a node with given value
     Node findNode(Node root, report key) {
-        if (root == null || key.compareTo(root.data) == 0)
-            return root;
-        if (key.compareTo(root.data) < 0)
-            return findNode(root.left, key);
-        else
-            return findNode(root.right, key);
+        while (root != null) {
+            int compare = key.compareTo(root.data);
+            if (compare == 0)
+                return root;
+            root = compare < 0 ? root.left : root.right;
+        }
+        return null;
     }
     /**
      * @author abard
@@ -202,10 +373,10 @@ public class myAVL {
      * @return node
      */
     Node findNode(Node root, LocalDate date) {
-    	if(root == null || date.equals(root.data.getStartTime()) || date.isBefore(root.data.getStartTime()))
-    		return root;
-    	else
-    		return findNode(root.right, date);
+    	long second = report.toSecond(date);
+    	while(root != null && second > root.data.getStartSecond())
+    		root = root.right;
+    	return root;
     }
 
     // Inserts a node with given value into the tree
@@ -240,11 +411,9 @@ public class myAVL {
             System.out.println("\nNo nodes in the tree");
             return;
         }
-        if (root.left != null)
-            InOrder(root.left);
-        System.out.print(root.data.getID() + " ");
-        if (root.right != null)
-            InOrder(root.right);
+        Iterator<report> reports = new InOrderIterator(root, report.NO_TIME);
+        while (reports.hasNext())
+            System.out.print(reports.next().getID() + " ");
     }
 
     // Performs pre-order traversal of the tree
@@ -253,11 +422,17 @@ public class myAVL {
             System.out.println("No nodes in the tree");
             return;
         }
-        System.out.print(root.data.getID() + " ");
-        if (root.left != null)
-            PreOrder(root.left);
-        if (root.right != null)
-            PreOrder(root.right);
+        Node[] stack = new Node[Height(root) + 1];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            System.out.print(node.data.getID() + " ");
+            if (node.right != null)
+                stack[top++] = node.right;
+            if (node.left != null)
+                stack[top++] = node.left;
+        }
     }
 
     // Performs post-order traversal of the tree
@@ -266,32 +441,568 @@ public class myAVL {
             System.out.println("No nodes in the tree");
             return;
         }
-        if (key.left != null)
-            PostOrder(key.left);
-        if (key.right != null)
-            PostOrder(key.right);
-        System.out.print(key.data.getID() + " ");
+        Node[] stack = new Node[Height(key)];
+        int top = 0;
+        Node node = key;
+        Node lastVisited = null;
+        while (top > 0 || node != null) {
+            if (node != null) {
+                stack[top++] = node;
+                node = node.left;
+            } else {
+                Node peek = stack[top - 1];
+                if (peek.right != null && lastVisited != peek.right) {
+                    node = peek.right;
+                } else {
+                    System.out.print(peek.data.getID() + " ");
+                    lastVisited = peek;
+                    top--;
+                }
+            }
+        }
     }
+
+    /**
+     * Pull-based in-order iterator. Uses one explicit stack sized to the tree
+     * height, so it neither recurses nor allocates per visited report.
+     * Fails fast if the tree is modified during iteration.
+     */
+    class InOrderIterator implements Iterator<report> {
+        private final Node[] stack;
+        private int top;
+        private final int expectedModCount = modCount;
+
+        /**
+         * @param root subtree to iterate
+         * @param from first start time (epoch second) to return, NO_TIME to start at the earliest report
+         */
+        InOrderIterator(Node root, long from) {
+            stack = new Node[Math.max(1, Height(root))];
+            // push the path to the first report starting at or after from
+            while (root != null) {
+                if (root.data.getStartSecond() >= from) {
+                    stack[top++] = root;
+                    root = root.left;
+                } else
+                    root = root.right;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        @Override
+        public report next() {
+            if (top == 0)
+                throw new NoSuchElementException();
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            Node node = stack[--top];
+            for (Node n = node.right; n != null; n = n.left)
+                stack[top++] = n;
+            return node.data;
+        }
+    }
+
+    // Returns the reports in date order
+    @Override
+    public Iterator<report> iterator() {
+        return new InOrderIterator(root, report.NO_TIME);
+    }
+
+    /**
+     * Returns the reports with dates on or after the given date, in date order
+     * @param from null for all reports
+     * @return Iterator
+     */
+    public Iterator<report> iterator(LocalDate from) {
+        return new InOrderIterator(root, report.toSecond(from));
+    }
+
+    /**
+     * Returns the reports starting at or after the given epoch second, in time order
+     * @param fromSecond
+     * @return Iterator
+     */
+    public Iterator<report> iterator(long fromSecond) {
+        return new InOrderIterator(root, fromSecond);
+    }
+
     /**
      * @author abard
-     * returns the number of nodes which come after a given node
-     * & have dates >= the given node
+     * returns the number of nodes in the subtree of root
+     * with dates >= the given date, using subtree sizes (O(log n))
      * @param root
+     * @param date
      * @return int
      */
     int countAfter(Node root, LocalDate date) {
-    	if(root == null)
+    	return Size(root) - countBefore(root, date);
+    }
+
+    /**
+     * Returns the rank of date in the subtree of root: the number of nodes
+     * with dates strictly before the given date (O(log n))
+     * @param root
+     * @param date
+     * @return int
+     */
+    int countBefore(Node root, LocalDate date) {
+    	if (date != null && root == this.root && days.isExact())
+    		return days.countBefore(date.toEpochDay());
+    	return countBefore(root, report.toSecond(date));
+    }
+
+    /**
+     * Returns the number of nodes in the subtree of root that start strictly
+     * before the given epoch second (O(log n))
+     * @param root
+     * @param second
+     * @return int
+     */
+    int countBefore(Node root, long second) {
+    	if (frozen != null && root == this.root)
+    		return frozen.countBefore(second);
+    	int count = 0;
+    	while (root != null) {
+    		if (root.data.getStartSecond() < second) {
+    			// root and its whole left subtree come before second
+    			count += Size(root.left) + 1;
+    			root = root.right;
+    		} else
+    			root = root.left;
+    	}
+    	return count;
+    }
+
+    /**
+     * Returns the report with the given rank, the number of reports before it
+     * in date order, using subtree sizes (O(log n))
+     * @param rank between 0 and size() - 1
+     * @return report
+     */
+    report select(int rank) {
+    	if (rank < 0 || rank >= size())
+    		throw new IndexOutOfBoundsException("Rank " + rank + " of " + size());
+    	Node node = root;
+    	while (true) {
+    		int left = Size(node.left);
+    		if (rank < left)
+    			node = node.left;
+    		else if (rank == left)
+    			return node.data;
+    		else {
+    			rank -= left + 1;
+    			node = node.right;
+    		}
+    	}
+    }
+
+    /**
+     * Counts the reports with dates in the range [from, to) (O(log n))
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countBetween(LocalDate from, LocalDate to) {
+    	if (report.toSecond(from) >= report.toSecond(to))
+    		return 0;
+    	return countBefore(root, to) - countBefore(root, from);
+    }
+
+    /**
+     * Counts the reports of one month (O(1), see DailyHistogram)
+     * @param month
+     * @return int
+     */
+    public int countMonth(YearMonth month) {
+    	return countBetween(month.atDay(1), month.plusMonths(1).atDay(1));
+    }
+
+    /**
+     * Counts the reports of one year (O(1), see DailyHistogram)
+     * @param year
+     * @return int
+     */
+    public int countYear(int year) {
+    	return countBetween(LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1));
+    }
+
+    /**
+     * Counts the reports of every month from the first to the last report
+     * @return map of month to count, in month order
+     */
+    public TreeMap<YearMonth, Integer> countByMonth() {
+    	TreeMap<YearMonth, Integer> counts = new TreeMap<>();
+    	long first = root == null ? Long.MAX_VALUE : firstDay();
+    	if (first == Long.MAX_VALUE)
+    		return counts;
+    	YearMonth last = YearMonth.from(LocalDate.ofEpochDay(lastDay()));
+    	for (YearMonth month = YearMonth.from(LocalDate.ofEpochDay(first)); !month.isAfter(last); month = month.plusMonths(1))
+    		counts.put(month, countMonth(month));
+    	return counts;
+    }
+
+    /**
+     * Counts the reports of every year from the first to the last report
+     * @return map of year to count, in year order
+     */
+    public TreeMap<Integer, Integer> countByYear() {
+    	TreeMap<Integer, Integer> counts = new TreeMap<>();
+    	long first = root == null ? Long.MAX_VALUE : firstDay();
+    	if (first == Long.MAX_VALUE)
+    		return counts;
+    	int last = LocalDate.ofEpochDay(lastDay()).getYear();
+    	for (int year = LocalDate.ofEpochDay(first).getYear(); year <= last; year++)
+    		counts.put(year, countYear(year));
+    	return counts;
+    }
+
+    /**
+     * Counts the reports starting in the time window [from, to) (O(log n))
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     * @return int
+     */
+    public int countBetween(LocalDateTime from, LocalDateTime to) {
+    	return countBetween(report.toSecond(from), report.toSecond(to));
+    }
+
+    /**
+     * Counts the reports starting in [fromSecond, toSecond) (O(log n))
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return int
+     */
+    public int countBetween(long fromSecond, long toSecond) {
+    	if (fromSecond >= toSecond)
     		return 0;
-    	else
-    		if(root.data.getStartTime().isBefore(date))
-    			return countAfter(root.right, date);
-    		//if root left date is before given date, count root and right root nodes
-    		if(root.left != null)
-    			if(root.left.data.getStartTime().isBefore(date))
-    				return 1 + countAfter(root.right, date);
-    			else
-    				return 1 + countAfter(root.right, date) + countAfter(root.left, date);
-    		return 1 + countAfter(root.right, date);    	
+    	return countBefore(root, toSecond) - countBefore(root, fromSecond);
+    }
+
+    /**
+     * Counts the reports of the days [from, to) that start within the same hours
+     * of each day, e.g. 7 to 9 for the morning rush hour. A window with toHour
+     * before fromHour wraps around midnight (22 to 2 is 22:00-23:59 and
+     * 00:00-01:59 of every day). Answered with rank queries per day, or one scan
+     * of the range when that touches fewer reports.
+     * @param from first day, null for the day of the earliest report
+     * @param to last day (exclusive), null for the day after the latest report
+     * @param fromHour first hour of the window (0-23)
+     * @param toHour end hour of the window (exclusive, 0-24)
+     * @return int
+     */
+    public int countHourWindow(LocalDate from, LocalDate to, int fromHour, int toHour) {
+    	checkHourWindow(fromHour, toHour);
+    	if (root == null)
+    		return 0;
+    	long firstDay = from == null ? firstDay() : from.toEpochDay();
+    	long lastDay = to == null ? lastDay() + 1 : to.toEpochDay();
+    	if (lastDay <= firstDay)
+    		return 0;
+    	long start = firstDay * report.SECONDS_PER_DAY;
+    	long end = lastDay * report.SECONDS_PER_DAY;
+    	long fromOffset = (long) fromHour * SECONDS_PER_HOUR;
+    	long toOffset = (long) toHour * SECONDS_PER_HOUR;
+
+    	int count = 0;
+    	if ((lastDay - firstDay) * 4 < countBetween(start, end)) {
+    		for (long day = start; day < end; day += report.SECONDS_PER_DAY) {
+    			if (fromHour < toHour)
+    				count += countBetween(day + fromOffset, day + toOffset);
+    			else // the end and the start of the same day
+    				count += countBetween(day, day + toOffset) + countBetween(day + fromOffset, day + report.SECONDS_PER_DAY);
+    		}
+    		return count;
+    	}
+    	// few reports per day: scan them and check the hour
+    	Iterator<report> reports = new InOrderIterator(root, start);
+    	while (reports.hasNext()) {
+    		report r = reports.next();
+    		if (r.getStartSecond() >= end)
+    			break;
+    		if (inHourWindow(r.getStartHour(), fromHour, toHour))
+    			count++;
+    	}
+    	return count;
+    }
+
+    // Rejects hours outside 0-23 (0-24 for toHour) and empty windows
+    static void checkHourWindow(int fromHour, int toHour) {
+    	if (fromHour < 0 || fromHour > 23 || toHour < 0 || toHour > 24 || fromHour == toHour)
+    		throw new IllegalArgumentException("Invalid hour window " + fromHour + " to " + toHour);
+    }
+
+    // Checks whether an hour of day lies in [fromHour, toHour), wrapping around midnight
+    // (-1, the hour of a report without a start time, never does)
+    static boolean inHourWindow(int hour, int fromHour, int toHour) {
+    	if (hour < 0)
+    		return false;
+    	if (fromHour < toHour)
+    		return hour >= fromHour && hour < toHour;
+    	return hour >= fromHour || hour < toHour;
+    }
+
+    /**
+     * Counts the reports of the days [from, to) by the hour of day they start in.
+     * Answered with one rank query per hour of the range, or one scan of the range
+     * when that touches fewer reports.
+     * @param from first day, null for the day of the earliest report
+     * @param to last day (exclusive), null for the day after the latest report
+     * @return counts indexed by hour (0-23)
+     */
+    public int[] countByHour(LocalDate from, LocalDate to) {
+    	int[] counts = new int[24];
+    	if (root == null)
+    		return counts;
+    	long firstDay = from == null ? firstDay() : from.toEpochDay();
+    	long lastDay = to == null ? lastDay() + 1 : to.toEpochDay();
+    	if (lastDay <= firstDay)
+    		return counts;
+    	long start = firstDay * report.SECONDS_PER_DAY;
+    	long end = lastDay * report.SECONDS_PER_DAY;
+
+    	if ((lastDay - firstDay) * 24 < countBetween(start, end)) {
+    		int before = countBefore(root, start);
+    		for (long hour = start; hour < end; hour += SECONDS_PER_HOUR) {
+    			int next = countBefore(root, hour + SECONDS_PER_HOUR);
+    			counts[(int) ((hour - start) / SECONDS_PER_HOUR % 24)] += next - before;
+    			before = next;
+    		}
+    		return counts;
+    	}
+    	Iterator<report> reports = new InOrderIterator(root, start);
+    	while (reports.hasNext()) {
+    		report r = reports.next();
+    		if (r.getStartSecond() >= end)
+    			break;
+    		counts[r.getStartHour()]++;
+    	}
+    	return counts;
+    }
+
+    // Epoch day of the earliest report with a start time (Long.MAX_VALUE if there is none)
+    private long firstDay() {
+    	Iterator<report> reports = new InOrderIterator(root, report.NO_TIME + 1);
+    	if (!reports.hasNext())
+    		return Long.MAX_VALUE;
+    	return Math.floorDiv(reports.next().getStartSecond(), report.SECONDS_PER_DAY);
+    }
+
+    // Epoch day of the latest report (the tree must not be empty)
+    private long lastDay() {
+    	Node node = root;
+    	while (node.right != null)
+    		node = node.right;
+    	return Math.floorDiv(node.data.getStartSecond(), report.SECONDS_PER_DAY);
+    }
+
+    /**
+     * Counts the reports with dates on or after the given date (O(log n))
+     * @param date
+     * @return int
+     */
+    public int countOnOrAfter(LocalDate date) {
+    	return countAfter(root, date);
+    }
+
+    /**
+     * Aggregates the reports with dates in [from, to) from the subtree
+     * aggregates, in O(log n) however many reports the range holds
+     * @param from inclusive lower bound, null for no bound
+     * @param to exclusive upper bound, null for no bound
+     * @return ReportAggregate
+     */
+    public ReportAggregate aggregateBetween(LocalDate from, LocalDate to) {
+        return aggregateBetween(from == null ? report.NO_TIME : report.toSecond(from),
+                to == null ? Long.MAX_VALUE : report.toSecond(to));
+    }
+
+    /**
+     * Aggregates the reports starting in [fromSecond, toSecond) (O(log n)).
+     * Only whole subtrees inside the range are merged, never subtracted, so the
+     * max severity is exact.
+     * @param fromSecond inclusive lower bound (epoch second)
+     * @param toSecond exclusive upper bound (epoch second)
+     * @return ReportAggregate
+     */
+    public ReportAggregate aggregateBetween(long fromSecond, long toSecond) {
+        ReportAggregate aggregate = new ReportAggregate();
+        if (fromSecond >= toSecond)
+            return aggregate;
+        // walk down to the first node inside the range, where the two bounds split
+        Node split = root;
+        while (split != null) {
+            long second = split.data.getStartSecond();
+            if (second < fromSecond)
+                split = split.right;
+            else if (second >= toSecond)
+                split = split.left;
+            else
+                break;
+        }
+        if (split == null)
+            return aggregate;
+        aggregate.add(split.data);
+        // left of the split everything is before toSecond: keep what is at or after fromSecond
+        Node node = split.left;
+        while (node != null) {
+            if (node.data.getStartSecond() >= fromSecond) {
+                addSubtree(aggregate, node.right);
+                aggregate.add(node.data);
+                node = node.left;
+            } else
+                node = node.right;
+        }
+        // right of the split everything is at or after fromSecond: keep what is before toSecond
+        node = split.right;
+        while (node != null) {
+            if (node.data.getStartSecond() < toSecond) {
+                addSubtree(aggregate, node.left);
+                aggregate.add(node.data);
+                node = node.right;
+            } else
+                node = node.left;
+        }
+        return aggregate;
+    }
+
+    // Adds the subtree aggregates of node to aggregate
+    private void addSubtree(ReportAggregate aggregate, Node node) {
+        if (node != null)
+            aggregate.add(node.size, node.severitySum, node.maxSeverity, node.severity0, node.severity1,
+                    node.severity2, node.severity3, node.severity4, node.crossingCount, node.nightCount);
+    }
+
+    /**
+     * Freezes the tree for a read-mostly phase: its start times are copied into an
+     * array in Eytzinger order (see EytzingerIndex) that answers the rank and count
+     * queries with far fewer cache misses than the linked nodes. The nodes stay, so
+     * iteration and aggregates are unchanged, and the next insert, delete or addAll
+     * drops the array, turning the tree back into a plain mutable one.
+     */
+    public void freeze() {
+        long[] sorted = new long[size()];
+        int i = 0;
+        Iterator<report> reports = new InOrderIterator(root, report.NO_TIME);
+        while (reports.hasNext())
+            sorted[i++] = reports.next().getStartSecond();
+        frozen = new EytzingerIndex(sorted);
+    }
+
+    // Returns true while the tree is frozen (no change since the last freeze())
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    // Returns the number of reports in the tree
+    public int size() {
+        return Size(root);
+    }
+
+    // Inserts a report without the duplicate check that add() performs,
+    // keeping the root that the insertion (and any rotation) returns
+    void insert(report key) {
+        root = BSTInsert(root, key);
+    }
+
+    /**
+     * Returns the version of the contents. It differs from every earlier version
+     * of this tree and from the versions of all other trees, so a result cached
+     * with it is valid as long as the version of the state's tree is the same.
+     * @return long
+     */
+    long getVersion() {
+        return version;
+    }
+
+    // Publishes a new version, called by every change to the tree
+    private void changed() {
+        version = VERSIONS.incrementAndGet();
+    }
+    
+    /**
+     * Builds a perfectly balanced tree from a batch of reports.
+     * The reports are sorted with report.compareTo (stable, so equal dates keep
+     * their batch order) and the tree is then built bottom-up in O(n).
+     * @param reports the reports of one state
+     * @return a new tree containing all reports
+     */
+    public static myAVL bulkLoad(Collection<report> reports) {
+        myAVL tree = new myAVL();
+        tree.addAll(reports);
+        return tree;
+    }
+
+    /**
+     * Adds a batch of reports by merging them with the reports already in the
+     * tree and rebuilding it balanced. Cheaper than insert() per report when the
+     * batch is large compared to the tree; use add()/insert() for single updates.
+     * @param reports the reports to add
+     */
+    public void addAll(Collection<report> reports) {
+        report[] batch = reports.toArray(new report[0]);
+        Arrays.sort(batch);
+
+        List<report> existing = new ArrayList<>(Size(root));
+        collectInOrder(root, existing);
+
+        // merge the two sorted runs, existing reports first on equal dates
+        report[] merged = new report[existing.size() + batch.length];
+        int i = 0, j = 0, k = 0;
+        while (i < existing.size() && j < batch.length) {
+            if (batch[j].compareTo(existing.get(i)) < 0)
+                merged[k++] = batch[j++];
+            else
+                merged[k++] = existing.get(i++);
+        }
+        while (i < existing.size())
+            merged[k++] = existing.get(i++);
+        while (j < batch.length)
+            merged[k++] = batch[j++];
+
+        root = buildBalanced(merged, 0, merged.length - 1);
+        modCount++;
+        frozen = null;
+        for (report r : batch)
+            days.add(r.getStartSecond());
+        changed();
+    }
+
+    /**
+     * Replaces the content of the tree with reports that are already in tree
+     * order, building it balanced in O(n)
+     * @param sorted
+     */
+    void loadSorted(report[] sorted) {
+        root = buildBalanced(sorted, 0, sorted.length - 1);
+        modCount++;
+        frozen = null;
+        days = new DailyHistogram();
+        for (report r : sorted)
+            days.add(r.getStartSecond());
+        changed();
+    }
+
+    // Builds a balanced subtree from sorted[lo..hi], middle element as the root
+    Node buildBalanced(report[] sorted, int lo, int hi) {
+        if (lo > hi)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        Node node = new Node(sorted[mid]);
+        node.left = buildBalanced(sorted, lo, mid - 1);
+        node.right = buildBalanced(sorted, mid + 1, hi);
+        updateHeight(node);
+        return node;
+    }
+
+    // Appends the reports of the subtree to out in sorted order
+    void collectInOrder(Node root, List<report> out) {
+        Iterator<report> reports = new InOrderIterator(root, report.NO_TIME);
+        while (reports.hasNext())
+            out.add(reports.next());
     }
     
     // Getter for left rotation count
@@ -303,4 +1014,9 @@ public class myAVL {
     public int getRightRotationCount() {
         return rightRotationCount;
     }
+
+    // Getter for the number of imbalance-triggered rebalances
+    public int getRebalanceCount() {
+        return rebalanceCount;
+    }
 }
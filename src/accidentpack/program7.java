@@ -3,10 +3,10 @@
  */
 package accidentpack;
 
+import java.io.IOException;
 import java.time.LocalDate;
-import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.SortedMap;
 
 /**
  * @author abard
@@ -21,16 +21,49 @@ public class program7 {
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
 
-		//argument for input file
+		//argument for input file (csv or snapshot)
 		String filePath = args[0]; 		// EX: accidents_small_sample.csv
 		
+		//batch mode: answer every (state, date) pair of a query file
+		if (args.length > 2 && args[1].equals("--batch")) {
+			SortedMap<String, myAVL> report = createTreeMap(filePath);
+			countBatch(args[2], report);	// EX: queries.txt
+			return;
+		}
+		
+		//off-heap mode: keep the reports in direct buffers outside the Java heap and count from there
+		if (args.length > 3 && args[1].equals("--offheap")) {
+			countOffHeap(filePath, args[2], args[3]);	// EX: IL 2022-09-08
+			return;
+		}
+		
+		//columnar mode: keep the reports in primitive column arrays per state and count from there
+		if (args.length > 3 && args[1].equals("--columnar")) {
+			countColumnar(filePath, args[2], args[3]);	// EX: IL 2022-09-08
+			return;
+		}
+		
+		//server mode: load once and answer queries over HTTP until stopped
+		if (args.length > 2 && args[1].equals("--serve")) {
+			SortedMap<String, myAVL> report = createTreeMap(filePath);
+			serve(report, Integer.parseInt(args[2]));	// EX: 8080
+			return;
+		}
+		
 		//arguments for user input
 		String state = args[1]; 		// EX: IL
 		String stringDate = args[2];	// EX: 2022-09-08
 		LocalDate date = ReportHelper.dateConvert(args[2].concat(" 00:00:00")); 
 		
 		//task1 helper method 
-		TreeMap<String, myAVL> report = createTreeMap(filePath);
+		SortedMap<String, myAVL> report = createTreeMap(filePath);
+		ReportMetrics.get().watch(report);
+		ReportMetrics.register();
+		
+		//optional argument: save the loaded trees as a snapshot for later runs
+		if (args.length > 3) {
+			ReportHelper.writeSnapshot(report, args[3]);	// EX: accidents.snapshot
+		}
 		
 		//task4 helper method
 		countTotalRotations(report);
@@ -39,6 +72,11 @@ public class program7 {
 		//task2 helper method
 		countReports(state, stringDate, date, report);
 		
+		//print every metric when run with -Daccidentpack.metrics=true
+		if (Boolean.getBoolean("accidentpack.metrics")) {
+			System.out.print(ReportMetrics.get().dump());
+		}
+		
 	}
 	/**
 	 * @author abard
@@ -49,7 +87,7 @@ public class program7 {
 	 * @param report
 	 */
 	private static void countReports(String state, String stringDate, LocalDate date,
-			TreeMap<String, myAVL> report) {
+			SortedMap<String, myAVL> report) {
 		long time1;
 		long time2;
 		String processTime;
@@ -62,18 +100,136 @@ public class program7 {
 		System.out.println(processTime + " Seconds to calculate the number of reports");
 	}
 
+	/**
+	 * answers a file of "state,date" queries in one batch and prints one count per query
+	 * @param queryFile
+	 * @param report
+	 */
+	private static void countBatch(String queryFile, SortedMap<String, myAVL> report) {
+		long time1;
+		long time2;
+		String processTime;
+		BatchQuery batch;
+		try {
+			batch = BatchQuery.read(queryFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		time1 = System.nanoTime();
+		int[] counts = batch.countReports(report, Runtime.getRuntime().availableProcessors());
+		time2 = System.nanoTime();
+		processTime = ReportHelper.convertTime(time1, time2);
+		for (int i = 0; i < counts.length; i++) {
+			System.out.println(batch.getState(i) + "," + batch.getDate(i) + "," + counts[i]);
+		}
+		System.out.println(processTime + " Seconds to calculate " + counts.length + " report counts");
+	}
+
+	/**
+	 * loads the input file into an OffHeapReportStore and counts the reports of a state
+	 * on and after a given date from its off-heap trees
+	 * @param filePath
+	 * @param state
+	 * @param stringDate
+	 */
+	private static void countOffHeap(String filePath, String state, String stringDate) {
+		long time1;
+		long time2;
+		String processTime;
+		time1 = System.nanoTime();
+		OffHeapReportStore store;
+		if (ReportSnapshot.isSnapshot(filePath)) {
+			store = OffHeapReportStore.from(ReportHelper.readSnapshot(filePath));
+		} else {
+			store = OffHeapReportStore.readAccidentReports(filePath);
+		}
+		time2 = System.nanoTime();
+		processTime = ReportHelper.convertTime(time1, time2);
+		System.out.println(processTime + " Seconds to build the off-heap AVL trees ("
+				+ store.getOffHeapBytes() / (1024 * 1024) + " MB of direct memory)");
+		
+		LocalDate date = ReportHelper.dateConvert(stringDate.concat(" 00:00:00"));
+		time1 = System.nanoTime();
+		int count = store.countReports(state, date);
+		time2 = System.nanoTime();
+		processTime = ReportHelper.convertTime(time1, time2);
+		System.out.println(count + " Reports are available for " + state + " on and after the date " + stringDate);
+		System.out.println(processTime + " Seconds to calculate the number of reports");
+	}
+
+	/**
+	 * loads the input file into a ColumnarIndex and counts the reports of a state
+	 * on and after a given date from its date-sorted columns
+	 * @param filePath
+	 * @param state
+	 * @param stringDate
+	 */
+	private static void countColumnar(String filePath, String state, String stringDate) {
+		long time1;
+		long time2;
+		String processTime;
+		time1 = System.nanoTime();
+		ColumnarIndex index;
+		if (ReportSnapshot.isSnapshot(filePath)) {
+			index = ColumnarIndex.from(ReportHelper.readSnapshot(filePath));
+		} else {
+			index = ColumnarIndex.readAccidentReports(filePath);
+		}
+		time2 = System.nanoTime();
+		processTime = ReportHelper.convertTime(time1, time2);
+		System.out.println(processTime + " Seconds to build the columnar index");
+		
+		LocalDate date = ReportHelper.dateConvert(stringDate.concat(" 00:00:00"));
+		time1 = System.nanoTime();
+		int count = index.countReports(state, date);
+		time2 = System.nanoTime();
+		processTime = ReportHelper.convertTime(time1, time2);
+		System.out.println(count + " Reports are available for " + state + " on and after the date " + stringDate);
+		System.out.println(processTime + " Seconds to calculate the number of reports");
+	}
+
+	/**
+	 * starts a ReportServer on the given port; it keeps running until the process is stopped
+	 * @param report
+	 * @param port
+	 */
+	private static void serve(SortedMap<String, myAVL> report, int port) {
+		try {
+			ReportMetrics.register();
+			ReportServer server = new ReportServer(report, port);
+			server.start();
+			System.out.println("Serving " + report.size() + " states on http://localhost:" + server.getPort() + "/");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * @author abard
 	 * creates a treemap and prints the time it takes to do so
+	 * (loads it directly when filePath is a snapshot instead of a csv file).
+	 * The trees are built by inserting one report at a time, so the rotation counts
+	 * are those of the assignment; -Daccidentpack.loader=bulk or =parallel builds
+	 * them balanced in one pass instead (no rotations).
 	 * @param filePath
 	 */
-	private static TreeMap<String, myAVL> createTreeMap(String filePath) {
+	private static SortedMap<String, myAVL> createTreeMap(String filePath) {
 		long time1;
 		long time2;
 		String processTime;
 		//creates treemaps for sorting the input file's reports
 		time1 = System.nanoTime();
-		TreeMap<String, myAVL> report = ReportHelper.readAccidentReports(filePath);
+		SortedMap<String, myAVL> report;
+		if (ReportSnapshot.isSnapshot(filePath)) {
+			report = ReportHelper.readSnapshot(filePath);
+		} else if (System.getProperty("accidentpack.loader", "insert").equals("parallel")) {
+			report = ParallelReportReader.readAccidentReports(filePath);
+		} else if (System.getProperty("accidentpack.loader", "insert").equals("bulk")) {
+			report = ReportHelper.bulkLoadAccidentReports(filePath);
+		} else {
+			report = ReportHelper.readAccidentReports(filePath);
+		}
 		time2 = System.nanoTime();
 		processTime = ReportHelper.convertTime(time1, time2);
 		System.out.println(processTime + " Seconds to build the AVL trees");		
@@ -84,14 +240,14 @@ public class program7 {
 	
 	 /**
 	 * @author Devin C
-	 * Counts the total number of left and right rotations in all AVL trees attached to the TreeMap.
-	 * @param report The TreeMap containing AVL trees.
+	 * Counts the total number of left and right rotations in all AVL trees attached to the state map.
+	 * @param report The state map (a StateTable) containing AVL trees.
 	 */
-	private static void countTotalRotations(TreeMap<String, myAVL> report) {
+	private static void countTotalRotations(SortedMap<String, myAVL> report) {
 	    int totalLeftRotations = 0;
 	    int totalRightRotations = 0;
 
-	    // Iterate through TreeMap entries
+	    // Iterate through the states in sorted order
 	    for (Map.Entry<String, myAVL> entry : report.entrySet()) {
 	        myAVL avlTree = entry.getValue();
 	        totalLeftRotations += avlTree.getLeftRotationCount();
@@ -1,16 +1,24 @@
 package accidentpack;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 
 /**
  * @author abard & Devin C
  *
  */
 public class report implements Comparable <report>{
+	// Stored for a missing or invalid start or end time
+	public static final long NO_TIME = Long.MIN_VALUE;
+	// Shared by every class converting between epoch seconds and epoch days
+	static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
 	private String ID;
 	private int Severity;
-	private LocalDate StartTime;
-	private LocalDate EndTime;
+	// Start and end as seconds since 1970-01-01 00:00:00 (local time of the csv, no zone)
+	private long StartTime;
+	private long EndTime;
 	private String Street;
 	private String City;
 	private String County;
@@ -21,28 +29,77 @@ public class report implements Comparable <report>{
 	private String Weather;
 	private boolean Crossing;
 	private boolean DayNight;
+	// ReportDictionary codes of the text columns
+	private int StreetCode;
+	private int CityCode;
+	private int CountyCode;
+	private int StateCode;
+	private int WeatherCode;
 	
 	public report(String ID, int Severity, LocalDate startTime, LocalDate endTime, String Street,
 			String City, String County, String State, int Temp,int Humidity, int Visibility,
 			String Weather, boolean Crossing, boolean DayNight) {
+		this(ID, Severity, toSecond(startTime), toSecond(endTime), Street, City, County, State,
+				Temp, Humidity, Visibility, Weather, Crossing, DayNight);
+	}
+
+	/**
+	 * Creates a report with full start and end timestamps
+	 * @param startTime seconds since 1970-01-01 00:00:00, or NO_TIME
+	 * @param endTime seconds since 1970-01-01 00:00:00, or NO_TIME
+	 */
+	public report(String ID, int Severity, long startTime, long endTime, String Street,
+			String City, String County, String State, int Temp,int Humidity, int Visibility,
+			String Weather, boolean Crossing, boolean DayNight) {
 		this.ID = ID;
 		this.Severity = Severity;
 		this.StartTime = startTime;
 		this.EndTime = endTime;
-		this.Street = Street;
-		this.City = City;
-		this.County = County;
-		this.State = State;
+		this.StreetCode = ReportDictionary.STREETS.encode(Street);
+		this.Street = ReportDictionary.STREETS.decode(StreetCode);
+		this.CityCode = ReportDictionary.CITIES.encode(City);
+		this.City = ReportDictionary.CITIES.decode(CityCode);
+		this.CountyCode = ReportDictionary.COUNTIES.encode(County);
+		this.County = ReportDictionary.COUNTIES.decode(CountyCode);
+		this.StateCode = ReportDictionary.STATES.encode(State);
+		this.State = ReportDictionary.STATES.decode(StateCode);
 		this.Temp = Temp;
 		this.Humidity = Humidity;
 		this.Visibility = Visibility;
-		this.Weather = Weather;
+		this.WeatherCode = ReportDictionary.WEATHER.encode(Weather);
+		this.Weather = ReportDictionary.WEATHER.decode(WeatherCode);
+		this.Crossing = Crossing;
+		this.DayNight = DayNight;
+	}
+
+	/**
+	 * Creates a report from ReportDictionary codes that are already encoded,
+	 * e.g. a row decoded from OffHeapReportStore
+	 */
+	report(String ID, int Severity, long startTime, long endTime, int StreetCode,
+			int CityCode, int CountyCode, int StateCode, int Temp, int Humidity, int Visibility,
+			int WeatherCode, boolean Crossing, boolean DayNight) {
+		this.ID = ID;
+		this.Severity = Severity;
+		this.StartTime = startTime;
+		this.EndTime = endTime;
+		this.StreetCode = StreetCode;
+		this.Street = ReportDictionary.STREETS.decode(StreetCode);
+		this.CityCode = CityCode;
+		this.City = ReportDictionary.CITIES.decode(CityCode);
+		this.CountyCode = CountyCode;
+		this.County = ReportDictionary.COUNTIES.decode(CountyCode);
+		this.StateCode = StateCode;
+		this.State = ReportDictionary.STATES.decode(StateCode);
+		this.Temp = Temp;
+		this.Humidity = Humidity;
+		this.Visibility = Visibility;
+		this.WeatherCode = WeatherCode;
+		this.Weather = ReportDictionary.WEATHER.decode(WeatherCode);
 		this.Crossing = Crossing;
 		this.DayNight = DayNight;
 	}
 
-	
-	
 	public String getID() {
 		return ID;
 	}
@@ -55,41 +112,75 @@ public class report implements Comparable <report>{
 	public void setSeverity(int Severity) {
 		this.Severity = Severity;
 	}
+	// Returns the day of the start time (null if there is none)
 	public LocalDate getStartTime() {
-		return StartTime;
+		return toDate(StartTime);
 	}
+	// Sets the start time to midnight of the given day
 	public void setStartTime(LocalDate StartTime) {
-		this.StartTime = StartTime;
+		this.StartTime = toSecond(StartTime);
 	}
+	// Returns the day of the end time (null if there is none)
 	public LocalDate getEndTime() {
-		return EndTime;
+		return toDate(EndTime);
 	}
+	// Sets the end time to midnight of the given day
 	public void setEndTime(LocalDate EndTime) {
+		this.EndTime = toSecond(EndTime);
+	}
+	public long getStartSecond() {
+		return StartTime;
+	}
+	public void setStartSecond(long StartTime) {
+		this.StartTime = StartTime;
+	}
+	public long getEndSecond() {
+		return EndTime;
+	}
+	public void setEndSecond(long EndTime) {
 		this.EndTime = EndTime;
 	}
+	// Returns the full start timestamp (null if there is none)
+	public LocalDateTime getStartDateTime() {
+		return StartTime == NO_TIME ? null : LocalDateTime.ofEpochSecond(StartTime, 0, ZoneOffset.UTC);
+	}
+	// Returns the full end timestamp (null if there is none)
+	public LocalDateTime getEndDateTime() {
+		return EndTime == NO_TIME ? null : LocalDateTime.ofEpochSecond(EndTime, 0, ZoneOffset.UTC);
+	}
+	// Returns the hour of day (0-23) of the start time, -1 if there is none
+	public int getStartHour() {
+		if (StartTime == NO_TIME)
+			return -1;
+		return Math.floorMod(StartTime, SECONDS_PER_DAY) / 3600;
+	}
 	public String getStreet() {
 		return Street;
 	}
 	public void setStreet(String Street) {
-		this.Street = Street;
+		this.StreetCode = ReportDictionary.STREETS.encode(Street);
+		this.Street = ReportDictionary.STREETS.decode(StreetCode);
 	}
 	public String getCity() {
 		return City;
 	}
 	public void setCity(String City) {
-		this.City = City;
+		this.CityCode = ReportDictionary.CITIES.encode(City);
+		this.City = ReportDictionary.CITIES.decode(CityCode);
 	}
 	public String getCounty() {
 		return County;
 	}
 	public void setCounty(String Country) {
-		this.County = Country;
+		this.CountyCode = ReportDictionary.COUNTIES.encode(Country);
+		this.County = ReportDictionary.COUNTIES.decode(CountyCode);
 	} 
 	public String getState() {
 		return State;
 	}
 	public void setState(String State) {
-		this.State = State;
+		this.StateCode = ReportDictionary.STATES.encode(State);
+		this.State = ReportDictionary.STATES.decode(StateCode);
 	}
 	public int getTemp() {
 		return Temp;
@@ -113,7 +204,23 @@ public class report implements Comparable <report>{
 		return Weather;
 	}
 	public void setWeather(String Weather) {
-		this.Weather = Weather;
+		this.WeatherCode = ReportDictionary.WEATHER.encode(Weather);
+		this.Weather = ReportDictionary.WEATHER.decode(WeatherCode);
+	}
+	public int getStreetCode() {
+		return StreetCode;
+	}
+	public int getCityCode() {
+		return CityCode;
+	}
+	public int getCountyCode() {
+		return CountyCode;
+	}
+	public int getStateCode() {
+		return StateCode;
+	}
+	public int getWeatherCode() {
+		return WeatherCode;
 	}
 	public boolean getCrossing() {
 		return Crossing;
@@ -128,8 +235,32 @@ public class report implements Comparable <report>{
 		this.DayNight = DayNight;
 	}
 
+    // Orders reports by their full start timestamp
     @Override
     public int compareTo(report r) {
-        return this.StartTime.compareTo(r.getStartTime());
+        return Long.compare(this.StartTime, r.StartTime);
     } 
+
+    /**
+     * Converts a day to the epoch second of its midnight
+     * @param date
+     * @return long, NO_TIME for null
+     */
+    static long toSecond(LocalDate date) {
+        return date == null ? NO_TIME : date.toEpochDay() * SECONDS_PER_DAY;
+    }
+
+    /**
+     * Converts a timestamp to epoch seconds
+     * @param dateTime
+     * @return long, NO_TIME for null
+     */
+    static long toSecond(LocalDateTime dateTime) {
+        return dateTime == null ? NO_TIME : dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    // Returns the day of an epoch second (null for NO_TIME)
+    static LocalDate toDate(long second) {
+        return second == NO_TIME ? null : LocalDate.ofEpochDay(Math.floorDiv(second, SECONDS_PER_DAY));
+    }
 }
@@ -1,2 +1,7 @@
 module Assignment7 {
+	requires java.management;
+	requires jdk.httpserver;
+
+	// JMX reads ReportMetrics through its MBean interface
+	exports accidentpack to java.management;
 }
\ No newline at end of file